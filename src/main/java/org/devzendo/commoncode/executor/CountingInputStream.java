@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An InputStream that adds the number of bytes read from it to a counter
+ * that may be shared with other streams, and read from other threads, and
+ * that signals when it has ended.
+ *
+ * @author matt
+ *
+ */
+final class CountingInputStream extends FilterInputStream {
+    private final LongAdder myCount;
+    private final CompletableFuture<Void> myEnded = new CompletableFuture<>();
+
+    /**
+     * @param in the stream to count
+     * @param count the counter to add to
+     */
+    CountingInputStream(final InputStream in, final LongAdder count) {
+        super(in);
+        myCount = count;
+    }
+
+    @Override
+    public int read() throws IOException {
+        final int b = super.read();
+        if (b != -1) {
+            myCount.increment();
+        } else {
+            myEnded.complete(null);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        final int n = super.read(b, off, len);
+        if (n > 0) {
+            myCount.add(n);
+        } else if (n == -1) {
+            myEnded.complete(null);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(final long n) throws IOException {
+        final long skipped = super.skip(n);
+        if (skipped > 0) {
+            myCount.add(skipped);
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            myEnded.complete(null);
+        }
+    }
+
+    /**
+     * @return a future completed, on the reading or closing thread, when
+     * the stream has been read to its end, or closed
+     */
+    CompletableFuture<Void> getEnded() {
+        return myEnded;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false; // a reset would count bytes twice
+    }
+}
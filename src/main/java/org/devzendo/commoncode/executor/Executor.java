@@ -16,34 +16,74 @@
 
 package org.devzendo.commoncode.executor;
 
+import org.devzendo.commoncode.concurrency.DaemonThreadFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.lang.ref.Cleaner;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 /**
  * An Executor forms the basis for spawning processes and obtaining
  * their output and exit code.
+ * <p>
+ * Executors should be closed when finished with, e.g. by try-with-resources.
+ * If one that has executed a process becomes unreachable without being
+ * closed, a Cleaner destroys the process (without waiting for it), and the
+ * leak is logged and counted; call setLeakTracking(true) to have the log
+ * show where the leaked process was executed.
+ * <p>
+ * Once executed, getCompletion() gives a future that completes when the
+ * process has exited and both its output channels have ended, with the
+ * process's resource usage. No thread blocks waiting for the exit, but the
+ * other lines (see getOtherLines) are read by a thread of their own. Calling
+ * sampleUsage before executing also records a time series of its CPU time,
+ * memory and I/O while it runs.
  * 
  * @author matt
  *
  */
-public abstract class Executor {
+public abstract class Executor implements AutoCloseable {
     private static final Logger LOGGER = LoggerFactory.getLogger(Executor.class);
+    private static final Cleaner CLEANER = Cleaner.create(new DaemonThreadFactory("executor-cleaner-"));
+    private static final AtomicLong LEAK_COUNT = new AtomicLong(0);
+    /**
+     * The default time close() waits for the process's channels to end.
+     */
+    public static final long DEFAULT_CLOSE_TIMEOUT_MILLIS = 1000;
+    private static volatile boolean leakTracking = false;
+
+    private ProcessState myState;
+    private Cleaner.Cleanable myCleanable;
     private final String[] myArguments;
     private Process myProcess;
-    private ArrayList<String> myOtherLines;
+    private LineTail myOtherLines;
     private OtherReader myOtherReaderThread;
+    private Thread myDiscarderThread;
+    private CountingInputStream myOutput;
+    private ProcessSampler mySampler;
+    private CompletableFuture<ProcessUsage> myCompletion;
     private BufferedReader myReader;
     private boolean bUseStdErr;
+    private boolean bCountDiscardedOutput;
+    private boolean bDiscardOutput;
     private BufferedWriter myWriter;
-    private int myExitValue;
+    private volatile int myExitValue;
+    private long myCloseTimeoutMillis = DEFAULT_CLOSE_TIMEOUT_MILLIS;
 
     /**
      * Construct an Executor with an array of arguments 
@@ -81,7 +121,7 @@ public abstract class Executor {
             sb.append("]");
             LOGGER.debug(sb.toString());
         }
-        myOtherLines = new ArrayList<String>();
+        myOtherLines = LineTail.unbounded();
         myOtherReaderThread = null;
         myExitValue = -1; // DID NOT EXIT
         bUseStdErr = false;
@@ -100,6 +140,78 @@ public abstract class Executor {
         bUseStdErr = true;
     }
 
+    /**
+     * When executed asynchronously, read and count the output that would
+     * otherwise be discarded by the operating system, so that it is included
+     * in the usage's output bytes, at the cost of a thread to read it. Call
+     * before the process is executed.
+     */
+    public void countDiscardedOutput() {
+        bCountDiscardedOutput = true;
+    }
+
+    /**
+     * Keep only the last lines of the other channel (Standard Error, unless
+     * useStdErr has been called), so a process that writes a lot there cannot
+     * exhaust the heap. Call before the process is executed.
+     * @param maxLines the maximum number of lines to keep
+     * @param maxBytes the maximum number of bytes (in UTF-8) of lines to keep
+     * @param spillToFile if true, all lines are also written to a temporary
+     * file, obtainable with getOtherLinesSpillFile(); the caller owns it, and
+     * should delete it with deleteOtherLinesSpillFile() once read
+     * @throws IOException if the temporary file cannot be created
+     */
+    public void captureOtherLines(final int maxLines, final long maxBytes, final boolean spillToFile) throws IOException {
+        if (myOtherReaderThread != null) {
+            throw new IllegalStateException("Cannot change capture of other lines once executed");
+        }
+        final File spillFile = spillToFile ? File.createTempFile("executor-", ".txt") : null;
+        try {
+            final LineTail previous = myOtherLines;
+            myOtherLines = new LineTail(maxLines, maxBytes, spillFile);
+            previous.deleteSpill();
+        } catch (final IOException e) {
+            if (spillFile != null) {
+                spillFile.delete();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Set how long close() waits for the process's channels to end, once it
+     * has been destroyed. A process it started that escaped being destroyed
+     * (e.g. by daemonising) can hold them open indefinitely; their reader
+     * threads are then abandoned, and later lines are not captured.
+     * @param millis the time to wait
+     */
+    public void setCloseTimeout(final long millis) {
+        myCloseTimeoutMillis = millis;
+    }
+
+    /**
+     * Sample the process's CPU time, resident memory and I/O counters
+     * periodically while it runs, on a scheduler shared by all Executors.
+     * The memory and I/O counters are only available on Linux. Call before
+     * the process is executed.
+     * @param intervalMillis the interval between samples
+     * @param maxSamples the number of most recent samples to keep
+     */
+    public void sampleUsage(final long intervalMillis, final int maxSamples) {
+        if (myOtherReaderThread != null) {
+            throw new IllegalStateException("Cannot change sampling once executed");
+        }
+        mySampler = new ProcessSampler(intervalMillis, maxSamples);
+    }
+
+    /**
+     * @return the samples taken of the process's resource usage, oldest
+     * first, if sampleUsage was called; otherwise an empty list
+     */
+    public List<ProcessSample> getUsageSamples() {
+        return mySampler == null ? Collections.emptyList() : mySampler.getSamples();
+    }
+
     /**
      * Obtain the supplied arguments
      * @return the supplied arguments
@@ -109,19 +221,115 @@ public abstract class Executor {
     }
 
     /**
-     * A thread that reads the stderr and adds to myOtherLines.
+     * Enable or disable recording where each process is executed, so that
+     * leaks can be traced to their source. Off by default, as it costs a
+     * stack trace per execution.
+     * @param enabled true to record
+     */
+    public static void setLeakTracking(final boolean enabled) {
+        leakTracking = enabled;
+    }
+
+    /**
+     * @return the number of Executors that have been reclaimed by the
+     * garbage collector without having been closed
+     */
+    public static long getLeakCount() {
+        return LEAK_COUNT.get();
+    }
+
+    /**
+     * The resources to release if the Executor is not closed, and the
+     * accounting of the process's resource usage; it must not refer to the
+     * Executor, or the Executor would never become unreachable (the
+     * completion stages built on it are reachable until the process exits).
+     */
+    private static final class ProcessState implements Runnable {
+        private final String myName;
+        private final Throwable myExecutionSite; // null unless tracking leaks
+        private final LongAdder myOutputBytes = new LongAdder();
+        private volatile ProcessSampler mySampler; // null unless sampling
+        private volatile Process myProcess;
+        private volatile long myStartNanos;
+        private volatile long myCpuNanos = -1;
+        private volatile boolean bClosed;
+
+        ProcessState(final String name, final Throwable executionSite) {
+            myName = name;
+            myExecutionSite = executionSite;
+        }
+
+        // Called at most once, on the Cleaner's thread or by close(); must
+        // never block.
+        @Override
+        public void run() {
+            if (bClosed) {
+                return;
+            }
+            LEAK_COUNT.incrementAndGet();
+            if (myExecutionSite != null) {
+                LOGGER.warn("Executor for " + myName + " was not closed; destroying its process", myExecutionSite);
+            } else {
+                LOGGER.warn("Executor for " + myName + " was not closed; destroying its process"
+                        + " (enable Executor.setLeakTracking to see where it was executed)");
+            }
+            final Process process = myProcess;
+            if (process != null) {
+                destroyWithDescendants(process);
+            }
+        }
+
+        // The CPU time is lost once the process has exited, so is recorded
+        // whenever it can be observed.
+        void observeCpu(final Process process) {
+            final ProcessSampler sampler = mySampler;
+            if (sampler != null) {
+                sampler.sample();
+            }
+            process.info().totalCpuDuration().ifPresent(cpu -> recordCpu(cpu.toNanos()));
+        }
+
+        // Each channel's end may be observed on its own thread.
+        private synchronized void recordCpu(final long cpuNanos) {
+            if (cpuNanos > myCpuNanos) {
+                myCpuNanos = cpuNanos;
+            }
+        }
+
+        ProcessUsage usage(final Process process) {
+            final long wallNanos = System.nanoTime() - myStartNanos;
+            observeCpu(process);
+            long cpuNanos = myCpuNanos;
+            final ProcessSampler sampler = mySampler;
+            if (sampler != null) {
+                sampler.stop();
+                cpuNanos = Math.max(cpuNanos, sampler.getLastCpuNanos());
+            }
+            return new ProcessUsage(process.pid(), process.exitValue(), wallNanos, cpuNanos, myOutputBytes.sum());
+        }
+    }
+
+    /**
+     * A thread that reads the stderr and adds to myOtherLines. It does not
+     * refer to the Executor, so cannot keep an unclosed Executor reachable.
      *
      */
-    class OtherReader extends Thread {
+    static class OtherReader extends Thread {
         private final InputStream mInputStream;
+        private final LineTail mLines;
+        private final CompletableFuture<Void> mFinished = new CompletableFuture<>();
 
         /**
          * Construct a reading thread monitoring an InputStream
          * @param is the InputStream to monitor
+         * @param lines the tail to add lines to
+         * @param name the name of the process
          */
-        OtherReader(final InputStream is) {
+        OtherReader(final InputStream is, final LineTail lines, final String name) {
             this.mInputStream = is;
-            setName(myArguments[0] + " Std Err Reader");
+            this.mLines = lines;
+            setName(name + " Std Err Reader");
+            setDaemon(true); // in case it is abandoned
         }
 
         /**
@@ -130,24 +338,60 @@ public abstract class Executor {
         @Override
         public void run() {
             try {
-                String l = null;
-                final BufferedReader br = new BufferedReader(new InputStreamReader(mInputStream));
-                while ((l = br.readLine()) != null) {
-                    myOtherLines.add(l);
-                }
+                // bounded by the tail's limits, however long a line is
+                mLines.readFrom(new InputStreamReader(mInputStream));
             } catch (final IOException ioe) {
                 LOGGER.warn("Failed to read standard error: " + ioe.getMessage());
+            } finally {
+                mLines.closeSpill();
+                mFinished.complete(null);
             }
         }
+
+        /**
+         * @return a future completed, on this thread, when the stream ends
+         */
+        CompletableFuture<Void> getFinished() {
+            return mFinished;
+        }
     }
 
     /**
      * After execution, obtain the lines sent to the Standard Error channel, or,
-     * if useStdErr has been called, those lines sent to Standard Output.
-     * @return the stderr output
+     * if useStdErr has been called, those lines sent to Standard Output. Once
+     * the Executor is closed (or executeAndWaitFor has returned), these are
+     * all the lines (or the last lines, if captureOtherLines was called);
+     * before then, they are those read so far.
+     * @return a copy of the stderr output
      */
     public ArrayList<String> getOtherLines() {
-        return myOtherLines;
+        return myOtherLines.getLines();
+    }
+
+    /**
+     * @return the number of other lines discarded to stay within the limits
+     * given to captureOtherLines
+     */
+    public long getOtherLinesDroppedCount() {
+        return myOtherLines.getDroppedCount();
+    }
+
+    /**
+     * @return the file to which all other lines are written, if
+     * captureOtherLines was asked to spill to a file; otherwise null
+     */
+    public File getOtherLinesSpillFile() {
+        return myOtherLines.getSpillFile();
+    }
+
+    /**
+     * Delete the file to which all other lines are written, if
+     * captureOtherLines was asked to spill to a file. Call once it has been
+     * read, after the Executor is closed; the Executor does not delete it.
+     * @return true iff there was a spill file, and it was deleted
+     */
+    public boolean deleteOtherLinesSpillFile() {
+        return myOtherLines.deleteSpill();
     }
 
     /**
@@ -195,20 +439,121 @@ public abstract class Executor {
             }
             LOGGER.debug(sb.toString());
         }
-        final Runtime rt = Runtime.getRuntime();
-        myProcess = rt.exec(myArguments);
+        final ProcessBuilder builder = new ProcessBuilder(myArguments);
+        if (bDiscardOutput) {
+            if (bUseStdErr) {
+                builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+            } else {
+                builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            }
+        }
+        final long startNanos = System.nanoTime();
+        myProcess = builder.start();
+        if (myState == null) {
+            myState = new ProcessState(myArguments[0], leakTracking ? new Throwable("Executed here") : null);
+            myCleanable = CLEANER.register(this, myState);
+        }
+        final ProcessState state = myState;
+        final Process process = myProcess;
+        state.myProcess = process;
+        state.myStartNanos = startNanos;
+        state.mySampler = mySampler;
+        if (mySampler != null) {
+            mySampler.start(process, startNanos);
+        }
+        final CountingInputStream stdout = new CountingInputStream(process.getInputStream(), state.myOutputBytes);
+        final CountingInputStream stderr = new CountingInputStream(process.getErrorStream(), state.myOutputBytes);
         if (bUseStdErr) {
-            myReader = new BufferedReader(new InputStreamReader(myProcess.getErrorStream()));
-            myOtherReaderThread = new OtherReader(myProcess.getInputStream());
+            myOutput = stderr;
+            myOtherReaderThread = new OtherReader(stdout, myOtherLines, myArguments[0]);
         } else {
-            myReader = new BufferedReader(new InputStreamReader(myProcess.getInputStream()));
-            myOtherReaderThread = new OtherReader(myProcess.getErrorStream());
+            myOutput = stdout;
+            myOtherReaderThread = new OtherReader(stderr, myOtherLines, myArguments[0]);
         }
+        myReader = new BufferedReader(new InputStreamReader(myOutput));
+        // When a channel ends, the process is usually exiting, so this may
+        // be the last chance to observe its CPU time. Once both have ended,
+        // all its output has been counted.
+        // A discarded channel is never opened, so has no end to wait for.
+        final CompletableFuture<Void> outputEnded = bDiscardOutput
+                ? CompletableFuture.completedFuture(null) : myOutput.getEnded();
+        myCompletion = CompletableFuture.allOf(
+                myOtherReaderThread.getFinished().thenRun(() -> state.observeCpu(process)),
+                outputEnded.thenRun(() -> state.observeCpu(process)))
+                .thenCombine(process.onExit(), (v, p) -> state.usage(p));
         myOtherReaderThread.start();
-        myWriter = new BufferedWriter(new OutputStreamWriter(myProcess.getOutputStream()));
+        myWriter = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()));
         return myProcess;
     }
 
+    /**
+     * Execute the process, and return without waiting for it to finish. When
+     * it has finished, this Executor is closed, and the returned future is
+     * completed with its resource usage. No thread waits for the process to
+     * exit, but its other lines are still read, and captured as usual, by a
+     * thread of their own until it closes that channel.
+     * <p>
+     * As nothing else can read it, the process's output (Standard Output,
+     * unless useStdErr has been called) is discarded by the operating system,
+     * so getReader() returns null, and the output is not counted in the
+     * usage's output bytes; if countDiscardedOutput has been called, a second
+     * thread reads, counts and discards it instead.
+     * @return a future completed with the usage when the process has finished
+     * @throws IOException if the process cannot be executed.
+     */
+    protected CompletableFuture<ProcessUsage> executeAsync() throws IOException {
+        // otherwise a process that fills the pipe would never exit
+        bDiscardOutput = !bCountDiscardedOutput;
+        execute();
+        myReader = null;
+        if (bCountDiscardedOutput) {
+            myDiscarderThread = discard(myOutput, myArguments[0] + " Output Discarder");
+        }
+        return myCompletion.whenComplete((usage, throwable) -> {
+            if (usage != null) {
+                myExitValue = usage.getExitValue();
+                LOGGER.debug("Process {} finished: {}", myArguments[0], usage);
+            }
+            close();
+        });
+    }
+
+    /**
+     * Execute the process, and return without waiting for it to finish. When
+     * it has finished, this Executor is closed, and the callback is called
+     * with its resource usage.
+     * @param callback called with the usage when the process has finished
+     * @return a future completed when the callback has returned
+     * @throws IOException if the process cannot be executed.
+     */
+    protected CompletableFuture<ProcessUsage> executeAsync(final Consumer<ProcessUsage> callback) throws IOException {
+        return executeAsync().thenApply(usage -> {
+            callback.accept(usage);
+            return usage;
+        });
+    }
+
+    /**
+     * Obtain a future that completes when the executed process has exited
+     * and both its output (see getReader) and its other output (see
+     * getOtherLines) have been read to their ends. After execute(), the
+     * caller must read the output to its end, or close this Executor, for
+     * it to complete.
+     * @return the future, completed with the process's resource usage, or
+     * null if not yet executed
+     */
+    public CompletableFuture<ProcessUsage> getCompletion() {
+        return myCompletion;
+    }
+
+    /**
+     * @return the executed process's resource usage, or null if it has not
+     * yet finished
+     */
+    public ProcessUsage getUsage() {
+        return myCompletion == null ? null : myCompletion.getNow(null);
+    }
+
     /**
      * Execute the process, wait for it to finish, close it, and return the
      * exit code.
@@ -219,7 +564,7 @@ public abstract class Executor {
         try {
             myExitValue = execute().waitFor();
             close();
-            LOGGER.debug("Process " + myArguments[0] + " returned with exit code " + myExitValue);
+            LOGGER.debug("Process {} returned with exit code {}", myArguments[0], myExitValue);
             return myExitValue;
         } catch (final InterruptedException e) {
             LOGGER.warn("Interrupted waiting for " + myArguments[0] + ": " + e.getMessage());
@@ -243,17 +588,87 @@ public abstract class Executor {
     }
     
     /**
-     * Once finished, close this Executor
+     * Start a daemon thread that reads a stream to its end, discarding what
+     * it reads, then closes it.
+     * @param is the stream
+     * @param name the name of the thread
+     * @return the started thread
+     */
+    static Thread discard(final InputStream is, final String name) {
+        final Thread thread = new Thread(() -> {
+            try (InputStream in = is) {
+                in.transferTo(OutputStream.nullOutputStream());
+            } catch (final IOException ioe) {
+                LOGGER.warn("Failed to discard output: " + ioe.getMessage());
+            }
+        }, name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Wait a bounded time for a thread reading one of a process's channels
+     * to finish. If it does not, abandon it: closing the channel would not
+     * wake a read blocked on it.
+     * @param reader the reading thread, which must be a daemon
+     * @param timeoutMillis the time to wait
+     * @param description what the thread reads, for the log
+     */
+    static void joinReader(final Thread reader, final long timeoutMillis, final String description) {
+        if (reader == null || reader == Thread.currentThread()) {
+            return; // (when closed on completion, this may be the reader)
+        }
+        try {
+            reader.join(timeoutMillis);
+        } catch (final InterruptedException e) {
+            LOGGER.warn("Interrupted waiting for " + description + " reader thread: " + e.getMessage());
+            return;
+        }
+        if (reader.isAlive()) {
+            LOGGER.warn(description + " is still open " + timeoutMillis + "ms after closing, probably held by a"
+                    + " process that escaped being destroyed; abandoning its reader thread");
+        }
+    }
+
+    /**
+     * Destroy a process, and any processes it has started, which would
+     * otherwise keep its output open (e.g. a shell running a command).
+     * @param process the process
+     */
+    static void destroyWithDescendants(final Process process) {
+        process.descendants().forEach(ProcessHandle::destroy);
+        process.destroy();
+    }
+
+    /**
+     * Once finished, close this Executor: destroy the process if still
+     * running, wait (for at most the close timeout) for the Standard Error
+     * reader to finish, and close the reader. Closing more than once has no
+     * further effect.
      *
      */
+    @Override
     public void close() {
-        if (myOtherReaderThread != null) {
-            try {
-                myOtherReaderThread.join();
-            } catch (final InterruptedException e) {
-                LOGGER.warn("Interrupted waiting for Standard Error Reader thread: " + e.getMessage());
+        if (myState != null) {
+            if (myState.bClosed) {
+                return;
             }
+            myState.bClosed = true;
+            myCleanable.clean(); // deregister; the action does nothing once closed
+        }
+        if (mySampler != null) {
+            mySampler.stop();
         }
+        if (myProcess != null && myProcess.isAlive()) {
+            // Closing early: stop the process, so its Standard Error ends and
+            // the reader thread can be joined.
+            destroyWithDescendants(myProcess);
+        }
+        final String other = myArguments[0] + (bUseStdErr ? " Standard Output" : " Standard Error");
+        final String output = myArguments[0] + (bUseStdErr ? " Standard Error" : " Standard Output");
+        joinReader(myOtherReaderThread, myCloseTimeoutMillis, other);
+        joinReader(myDiscarderThread, myCloseTimeoutMillis, output);
         if (myProcess != null) {
             myProcess.destroy();
         }
@@ -265,14 +680,4 @@ public abstract class Executor {
             }
         }
     }
-    
-    /**
-     * Make sue we tidy up
-     * @throws Throwable on failure
-     */
-    @Override
-    public void finalize() throws Throwable {
-        close();
-        super.finalize();
-    }
 }
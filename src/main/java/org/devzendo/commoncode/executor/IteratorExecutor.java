@@ -33,6 +33,7 @@ import java.util.Iterator;
 public class IteratorExecutor extends Executor implements Iterator<Object> {
     private static final Logger LOGGER = LoggerFactory.getLogger(IteratorExecutor.class);
     private boolean bFirst;
+    private boolean bFinished;
     private boolean bSkipBlankLines;
     private IOException myIOException;
     private BufferedReader myReader;
@@ -60,6 +61,7 @@ public class IteratorExecutor extends Executor implements Iterator<Object> {
 
     private void init() {
         bFirst = true;
+        bFinished = false;
         myIOException = null;
         myReader = null;
         myNextLine = null;
@@ -84,14 +86,15 @@ public class IteratorExecutor extends Executor implements Iterator<Object> {
      * and getExitValue() will return the exit value, or some IOException has
      * occurred, in which case getIOException() will return it.
      * <p>
-     * You must either repeatedly call hasNext() until it returns false, or
-     * if you wish to terminate early, you must call close().
+     * You must either repeatedly call hasNext() until it returns false (which
+     * closes this IteratorExecutor), or if you wish to terminate early, you
+     * must call close(), e.g. by using try-with-resources.
      *
      * @return true if there is a line, false if there is not.
      */
     @Override
     public boolean hasNext() {
-        if (myIOException != null) {
+        if (myIOException != null || bFinished) {
             return false;
         }
         if (bFirst) {
@@ -115,7 +118,7 @@ public class IteratorExecutor extends Executor implements Iterator<Object> {
             // Has process finished? Obtain exit value...
             try {
                 setExitValue(getProcess().waitFor());
-                LOGGER.debug("Exit code is " + getExitValue());
+                LOGGER.debug("Exit code is {}", getExitValue());
             } catch (final InterruptedException e) {
                 LOGGER.warn("Interrupted " + getArguments()[0] + " obtaining exit status");
                 // TODO now what?
@@ -124,6 +127,8 @@ public class IteratorExecutor extends Executor implements Iterator<Object> {
             myIOException = e;
             LOGGER.warn("Could not read " + getArguments()[0] + ": " + e.getMessage());
         }
+        bFinished = true;
+        close(); // the output is exhausted, so there is nothing more to read
         return false;
     }
 
@@ -0,0 +1,305 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * A thread-safe capture of the last lines of a process's output, bounded by
+ * a number of lines and a number of (UTF-8) bytes, so that a chatty process
+ * cannot exhaust the heap; a line longer than the byte limit is truncated,
+ * and is never held whole while it is read. Optionally, every line is also
+ * written to a spill file, whole, so that the whole output is available
+ * without holding it in memory.
+ * 
+ * @author matt
+ *
+ */
+final class LineTail {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LineTail.class);
+
+    private static final int READ_BUFFER_SIZE = 8192;
+
+    private final int myMaxLines;
+    private final long myMaxBytes;
+    private final int myMaxLineChars;
+    private final ArrayDeque<String> myLines = new ArrayDeque<>(); // guarded by lock on this
+    private long myBytes; // guarded by lock on this
+    private long myDropped; // guarded by lock on this
+    private final File mySpillFile;
+    private BufferedWriter mySpillWriter; // guarded by lock on this
+
+    /**
+     * @param maxLines the maximum number of lines to keep
+     * @param maxBytes the maximum number of bytes (in UTF-8) of lines to keep
+     * @param spillFile if non-null, a file to which all lines are written
+     * @throws IOException if the spill file cannot be created
+     */
+    LineTail(final int maxLines, final long maxBytes, final File spillFile) throws IOException {
+        if (maxLines <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Line tail limits must be positive");
+        }
+        myMaxLines = maxLines;
+        myMaxBytes = maxBytes;
+        // a char encodes as at least one byte, so no more are needed
+        myMaxLineChars = (int) Math.min(maxBytes, Integer.MAX_VALUE - 8);
+        mySpillFile = spillFile;
+        if (spillFile != null) {
+            mySpillWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(spillFile), StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * @return a tail with no limits (other than the heap), and no spill file
+     */
+    static LineTail unbounded() {
+        try {
+            return new LineTail(Integer.MAX_VALUE, Long.MAX_VALUE, null);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e); // cannot happen without a spill file
+        }
+    }
+
+    /**
+     * Add a line, evicting the oldest lines as needed to stay within the
+     * limits. A single line longer than the byte limit is truncated to it,
+     * and kept alone; it is spilled whole.
+     * @param line the line
+     */
+    synchronized void add(final String line) {
+        keep(line);
+        spill(line);
+        endSpilledLine();
+    }
+
+    /**
+     * Read lines from a Reader until it ends, adding each as add does, but
+     * holding no more of a line than is kept, however long it is. Lines end
+     * with a line feed, a carriage return, or both, as for
+     * BufferedReader.readLine.
+     * @param reader the reader
+     * @throws IOException on failure to read
+     */
+    void readFrom(final Reader reader) throws IOException {
+        final char[] buffer = new char[READ_BUFFER_SIZE];
+        final StringBuilder line = new StringBuilder();
+        boolean inLine = false;
+        boolean skipLineFeed = false;
+        int count;
+        while ((count = reader.read(buffer)) != -1) {
+            int start = 0;
+            for (int i = 0; i < count; i++) {
+                final char c = buffer[i];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (c == '\n') {
+                        start = i + 1;
+                        continue;
+                    }
+                }
+                if (c == '\n' || c == '\r') {
+                    append(line, buffer, start, i);
+                    endLine(line);
+                    inLine = false;
+                    skipLineFeed = c == '\r';
+                    start = i + 1;
+                }
+            }
+            if (start < count) {
+                append(line, buffer, start, count);
+                inLine = true;
+            }
+        }
+        if (inLine) {
+            endLine(line);
+        }
+    }
+
+    private void append(final StringBuilder line, final char[] buffer, final int start, final int end) {
+        final int room = myMaxLineChars - line.length();
+        line.append(buffer, start, Math.min(room, end - start));
+        synchronized (this) {
+            spill(buffer, start, end - start);
+        }
+    }
+
+    private synchronized void endLine(final StringBuilder line) {
+        keep(line.toString());
+        endSpilledLine();
+        line.setLength(0);
+    }
+
+    // Called with the lock on this held
+    private void keep(final String line) {
+        final String kept = truncate(line, myMaxBytes);
+        myLines.addLast(kept);
+        myBytes += utf8Length(kept);
+        while (myLines.size() > 1 && (myLines.size() > myMaxLines || myBytes > myMaxBytes)) {
+            myBytes -= utf8Length(myLines.removeFirst());
+            myDropped++;
+        }
+    }
+
+    // Called with the lock on this held
+    private void spill(final String chars) {
+        if (mySpillWriter != null) {
+            try {
+                mySpillWriter.write(chars);
+            } catch (final IOException e) {
+                spillFailed(e);
+            }
+        }
+    }
+
+    // Called with the lock on this held
+    private void spill(final char[] chars, final int start, final int length) {
+        if (mySpillWriter != null) {
+            try {
+                mySpillWriter.write(chars, start, length);
+            } catch (final IOException e) {
+                spillFailed(e);
+            }
+        }
+    }
+
+    // Called with the lock on this held
+    private void endSpilledLine() {
+        if (mySpillWriter != null) {
+            try {
+                mySpillWriter.newLine();
+            } catch (final IOException e) {
+                spillFailed(e);
+            }
+        }
+    }
+
+    private void spillFailed(final IOException e) {
+        LOGGER.warn("Could not write to spill file " + mySpillFile + ": " + e.getMessage());
+        closeSpill();
+    }
+
+    /**
+     * Flush and close the spill file, if any; called when the output ends.
+     */
+    synchronized void closeSpill() {
+        if (mySpillWriter != null) {
+            try {
+                mySpillWriter.close();
+            } catch (final IOException e) {
+                LOGGER.warn("Could not close spill file " + mySpillFile + ": " + e.getMessage());
+            }
+            mySpillWriter = null;
+        }
+    }
+
+    /**
+     * Close and delete the spill file, if any; lines added after this are no
+     * longer spilled.
+     * @return true iff there was a spill file, and it was deleted
+     */
+    synchronized boolean deleteSpill() {
+        closeSpill();
+        return mySpillFile != null && mySpillFile.delete();
+    }
+
+    /**
+     * @return a copy of the lines kept
+     */
+    synchronized ArrayList<String> getLines() {
+        return new ArrayList<>(myLines);
+    }
+
+    /**
+     * @return the number of lines evicted to stay within the limits
+     */
+    synchronized long getDroppedCount() {
+        return myDropped;
+    }
+
+    /**
+     * @return the spill file, or null
+     */
+    File getSpillFile() {
+        return mySpillFile;
+    }
+
+    /**
+     * @param s a string
+     * @param maxBytes the maximum length of its UTF-8 encoding
+     * @return the longest prefix of the string, not splitting a surrogate
+     * pair, whose UTF-8 encoding is no longer than maxBytes
+     */
+    static String truncate(final String s, final long maxBytes) {
+        if (s.length() * 3L <= maxBytes) {
+            return s; // no char encodes as more than three bytes
+        }
+        long length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            final int width;
+            final int chars;
+            if (c < 0x80) {
+                width = 1;
+                chars = 1;
+            } else if (c < 0x800) {
+                width = 2;
+                chars = 1;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                width = 4;
+                chars = 2;
+            } else {
+                width = 3;
+                chars = 1;
+            }
+            if (length + width > maxBytes) {
+                return s.substring(0, i);
+            }
+            length += width;
+            i += chars - 1;
+        }
+        return s;
+    }
+
+    static int utf8Length(final String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            final char c = s.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+}
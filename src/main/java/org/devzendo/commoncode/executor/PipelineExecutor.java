@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A PipelineExecutor executes a sequence of processes, each one's Standard
+ * Output connected to the next one's Standard Input by the operating system
+ * (as in a shell's producer | filter | compressor), so the data passing
+ * between them is never copied through the JVM. The first stage's Standard
+ * Input and the last stage's Standard Output are available as streams, or
+ * may be redirected to files. Each stage's Standard Error is captured, as an
+ * Executor's other lines are.
+ * <p>
+ * PipelineExecutors must be closed when finished with, e.g. by
+ * try-with-resources; closing before the pipeline has finished destroys any
+ * stages still running.
+ *
+ * @author matt
+ *
+ */
+public class PipelineExecutor implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(PipelineExecutor.class);
+
+    private final List<String[]> myStages;
+    private final LineTail[] myOtherLines;
+    private File myInputFile;
+    private File myOutputFile;
+    private List<Process> myProcesses;
+    private Executor.OtherReader[] myOtherReaderThreads;
+    private BufferedReader myReader;
+    private Thread myDiscarderThread;
+    private int[] myExitValues;
+    private boolean bClosed;
+    private long myCloseTimeoutMillis = Executor.DEFAULT_CLOSE_TIMEOUT_MILLIS;
+
+    /**
+     * Construct a PipelineExecutor
+     * @param stages the arguments of each stage, in order, the first stage's
+     * output being the second stage's input, and so on
+     */
+    public PipelineExecutor(final List<String[]> stages) {
+        if (stages.isEmpty()) {
+            throw new IllegalArgumentException("Cannot execute an empty pipeline");
+        }
+        for (final String[] stage : stages) {
+            if (stage.length == 0) {
+                throw new IllegalArgumentException("Cannot execute a pipeline stage with an empty array");
+            }
+        }
+        myStages = new ArrayList<>(stages);
+        myOtherLines = new LineTail[stages.size()];
+        for (int i = 0; i < myOtherLines.length; i++) {
+            myOtherLines[i] = LineTail.unbounded();
+        }
+    }
+
+    /**
+     * Construct a PipelineExecutor
+     * @param stages the arguments of each stage, in order
+     */
+    public PipelineExecutor(final String[]... stages) {
+        this(Arrays.asList(stages));
+    }
+
+    /**
+     * Read the first stage's Standard Input from a file, rather than from
+     * getOutputStream(). Call before execute().
+     * @param inputFile the file to read
+     */
+    public void redirectInput(final File inputFile) {
+        checkNotExecuted();
+        myInputFile = inputFile;
+    }
+
+    /**
+     * Write the last stage's Standard Output to a file, rather than to
+     * getInputStream(). Call before execute().
+     * @param outputFile the file to write
+     */
+    public void redirectOutput(final File outputFile) {
+        checkNotExecuted();
+        myOutputFile = outputFile;
+    }
+
+    /**
+     * Keep only the last lines of each stage's Standard Error; see
+     * Executor.captureOtherLines. Call before execute().
+     * @param maxLines the maximum number of lines to keep, per stage
+     * @param maxBytes the maximum number of bytes (in UTF-8) of lines to
+     * keep, per stage
+     */
+    public void captureOtherLines(final int maxLines, final long maxBytes) {
+        checkNotExecuted();
+        for (int i = 0; i < myOtherLines.length; i++) {
+            try {
+                myOtherLines[i] = new LineTail(maxLines, maxBytes, null);
+            } catch (final IOException e) {
+                throw new IllegalStateException(e); // cannot happen without a spill file
+            }
+        }
+    }
+
+    /**
+     * Set how long close() waits for each stage's channels to end; see
+     * Executor.setCloseTimeout.
+     * @param millis the time to wait
+     */
+    public void setCloseTimeout(final long millis) {
+        myCloseTimeoutMillis = millis;
+    }
+
+    private void checkNotExecuted() {
+        if (myProcesses != null) {
+            throw new IllegalStateException("Cannot change the pipeline once executed");
+        }
+    }
+
+    /**
+     * Execute all stages of the pipeline.
+     * @return the Processes of each stage, in order
+     * @throws IOException if any stage cannot be executed, in which case
+     * none are left running
+     */
+    public List<Process> execute() throws IOException {
+        checkNotExecuted();
+        final List<ProcessBuilder> builders = new ArrayList<>(myStages.size());
+        for (final String[] stage : myStages) {
+            builders.add(new ProcessBuilder(stage));
+        }
+        if (myInputFile != null) {
+            builders.get(0).redirectInput(myInputFile);
+        }
+        if (myOutputFile != null) {
+            builders.get(builders.size() - 1).redirectOutput(myOutputFile);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            final StringBuilder sb = new StringBuilder();
+            sb.append("Executing pipeline: ");
+            for (final String[] stage : myStages) {
+                sb.append(String.join(" ", stage));
+                sb.append(" | ");
+            }
+            sb.setLength(sb.length() - 3);
+            LOGGER.debug(sb.toString());
+        }
+        myProcesses = ProcessBuilder.startPipeline(builders);
+        myOtherReaderThreads = new Executor.OtherReader[myProcesses.size()];
+        for (int i = 0; i < myOtherReaderThreads.length; i++) {
+            myOtherReaderThreads[i] = new Executor.OtherReader(myProcesses.get(i).getErrorStream(),
+                    myOtherLines[i], myStages.get(i)[0]);
+            myOtherReaderThreads[i].start();
+        }
+        myReader = new BufferedReader(new InputStreamReader(getInputStream()));
+        return myProcesses;
+    }
+
+    /**
+     * Execute the pipeline, wait for all stages to finish, close it, and
+     * return the aggregate exit code. As nothing can be written to or read
+     * from the pipeline meanwhile, the first stage's Standard Input is
+     * closed, unless redirected from a file, and the last stage's Standard
+     * Output is discarded, unless redirected to a file.
+     * @return the aggregate exit code, as returned by getExitValue()
+     * @throws IOException on error
+     */
+    public int executeAndWaitFor() throws IOException {
+        execute();
+        try {
+            if (myInputFile == null) {
+                getOutputStream().close();
+            }
+            if (myOutputFile == null) {
+                // otherwise the last stage blocks once the pipe is full
+                myDiscarderThread = Executor.discard(getInputStream(),
+                        myStages.get(myStages.size() - 1)[0] + " Output Discarder");
+            }
+            waitFor();
+            return getExitValue();
+        } catch (final InterruptedException e) {
+            LOGGER.warn("Interrupted waiting for pipeline: " + e.getMessage());
+            return -1;
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Wait for all stages to finish.
+     * @return the exit codes of each stage, in order
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public int[] waitFor() throws InterruptedException {
+        if (myProcesses == null) {
+            throw new IllegalStateException("Pipeline has not been executed");
+        }
+        final int[] exitValues = new int[myProcesses.size()];
+        for (int i = 0; i < exitValues.length; i++) {
+            exitValues[i] = myProcesses.get(i).waitFor();
+        }
+        LOGGER.debug("Pipeline returned with exit codes {}", Arrays.toString(exitValues));
+        myExitValues = exitValues;
+        return exitValues.clone();
+    }
+
+    /**
+     * @return the exit codes of each stage, in order, or null if waitFor has
+     * not returned
+     */
+    public int[] getExitValues() {
+        return myExitValues == null ? null : myExitValues.clone();
+    }
+
+    /**
+     * The aggregate exit code of the pipeline: that of the last stage to
+     * fail, or 0 if all succeeded (as with a shell's pipefail option), so a
+     * failure in an early stage is not hidden by later ones succeeding.
+     * @return the aggregate exit code, or -1 if waitFor has not returned
+     */
+    public int getExitValue() {
+        if (myExitValues == null) {
+            return -1; // DID NOT EXIT
+        }
+        for (int i = myExitValues.length - 1; i >= 0; i--) {
+            if (myExitValues[i] != 0) {
+                return myExitValues[i];
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return the last stage's Standard Output, unless redirected to a file
+     */
+    public InputStream getInputStream() {
+        return stage(myProcesses.size() - 1).getInputStream();
+    }
+
+    /**
+     * @return a Reader on the last stage's Standard Output, unless
+     * redirected to a file
+     */
+    public BufferedReader getReader() {
+        return myReader;
+    }
+
+    /**
+     * @return the first stage's Standard Input, unless redirected from a
+     * file; close it to signal the end of the input
+     */
+    public OutputStream getOutputStream() {
+        return stage(0).getOutputStream();
+    }
+
+    private Process stage(final int index) {
+        if (myProcesses == null) {
+            throw new IllegalStateException("Pipeline has not been executed");
+        }
+        return myProcesses.get(index);
+    }
+
+    /**
+     * @return the Processes of each stage, in order, or null if not executed
+     */
+    public List<Process> getProcesses() {
+        return myProcesses;
+    }
+
+    /**
+     * Obtain the lines a stage has sent to its Standard Error; complete once
+     * the pipeline is closed.
+     * @param stage the index of the stage, from 0
+     * @return a copy of the stage's stderr output
+     */
+    public ArrayList<String> getOtherLines(final int stage) {
+        return myOtherLines[stage].getLines();
+    }
+
+    /**
+     * Once finished, close this PipelineExecutor: destroy any stages still
+     * running, wait (for at most the close timeout) for the Standard Error
+     * readers to finish, and close the streams. Closing more than once has no further effect.
+     */
+    @Override
+    public void close() {
+        if (bClosed || myProcesses == null) {
+            return;
+        }
+        bClosed = true;
+        for (final Process process : myProcesses) {
+            if (process.isAlive()) {
+                Executor.destroyWithDescendants(process);
+            }
+        }
+        for (int i = 0; i < myOtherReaderThreads.length; i++) {
+            Executor.joinReader(myOtherReaderThreads[i], myCloseTimeoutMillis, myStages.get(i)[0] + " Standard Error");
+        }
+        Executor.joinReader(myDiscarderThread, myCloseTimeoutMillis,
+                myStages.get(myStages.size() - 1)[0] + " Standard Output");
+        try {
+            myReader.close();
+        } catch (final IOException ioe) {
+            LOGGER.warn("Could not close pipeline reader: " + ioe.getMessage());
+        }
+        try {
+            getOutputStream().close();
+        } catch (final IOException ioe) {
+            LOGGER.warn("Could not close pipeline writer: " + ioe.getMessage());
+        }
+    }
+}
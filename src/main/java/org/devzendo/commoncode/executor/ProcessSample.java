@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+/**
+ * One sample of the resource usage of a running process, taken by an
+ * Executor whose sampleUsage method has been called. Values that the
+ * operating system does not make available are -1: the resident memory and
+ * I/O counters are read from /proc, so are only available on Linux.
+ *
+ * @author matt
+ *
+ */
+public final class ProcessSample {
+    private final long myElapsedNanos;
+    private final long myCpuNanos;
+    private final long myResidentBytes;
+    private final long myReadBytes;
+    private final long myWrittenBytes;
+
+    /**
+     * @param elapsedNanos the time since the process was executed
+     * @param cpuNanos the CPU time used so far, or -1
+     * @param residentBytes the resident memory, or -1
+     * @param readBytes the bytes read so far, or -1
+     * @param writtenBytes the bytes written so far, or -1
+     */
+    public ProcessSample(final long elapsedNanos, final long cpuNanos, final long residentBytes,
+                         final long readBytes, final long writtenBytes) {
+        myElapsedNanos = elapsedNanos;
+        myCpuNanos = cpuNanos;
+        myResidentBytes = residentBytes;
+        myReadBytes = readBytes;
+        myWrittenBytes = writtenBytes;
+    }
+
+    /**
+     * @return the time, in nanoseconds, since the process was executed
+     */
+    public long getElapsedNanos() {
+        return myElapsedNanos;
+    }
+
+    /**
+     * @return the CPU time, in nanoseconds, used so far, or -1 if unknown
+     */
+    public long getCpuNanos() {
+        return myCpuNanos;
+    }
+
+    /**
+     * @return the resident memory (VmRSS), in bytes, or -1 if unknown
+     */
+    public long getResidentBytes() {
+        return myResidentBytes;
+    }
+
+    /**
+     * @return the bytes read so far by read-like system calls (rchar), or
+     * -1 if unknown
+     */
+    public long getReadBytes() {
+        return myReadBytes;
+    }
+
+    /**
+     * @return the bytes written so far by write-like system calls (wchar),
+     * or -1 if unknown
+     */
+    public long getWrittenBytes() {
+        return myWrittenBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "+" + myElapsedNanos + "ns cpu " + myCpuNanos + "ns rss " + myResidentBytes
+                + " read " + myReadBytes + " written " + myWrittenBytes;
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import org.devzendo.commoncode.concurrency.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically samples the resource usage of a running process, keeping the
+ * most recent samples. CPU time is obtained through ProcessHandle; resident
+ * memory and I/O counters from /proc/&lt;pid&gt;/status and /proc/&lt;pid&gt;/io
+ * on Linux. All samplers share one daemon thread, so sampling many processes
+ * costs no thread per process.
+ *
+ * @author matt
+ *
+ */
+final class ProcessSampler implements Runnable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProcessSampler.class);
+    private static final File PROC = new File("/proc");
+    private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+    static {
+        SCHEDULER = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("executor-sampler-"));
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
+    private final long myIntervalMillis;
+    private final int myMaxSamples;
+    private final ArrayDeque<ProcessSample> mySamples = new ArrayDeque<>(); // guarded by lock on this
+    private long myLastCpuNanos = -1; // guarded by lock on this
+    private volatile Process myProcess;
+    private volatile long myStartNanos;
+    private ScheduledFuture<?> myFuture; // guarded by lock on this
+    private boolean bStopped; // guarded by lock on this
+
+    /**
+     * @param intervalMillis the interval between samples
+     * @param maxSamples the number of most recent samples to keep
+     */
+    ProcessSampler(final long intervalMillis, final int maxSamples) {
+        if (intervalMillis <= 0 || maxSamples <= 0) {
+            throw new IllegalArgumentException("Sampling interval and number of samples must be positive");
+        }
+        myIntervalMillis = intervalMillis;
+        myMaxSamples = maxSamples;
+    }
+
+    /**
+     * Start sampling a process
+     * @param process the process
+     * @param startNanos the System.nanoTime() at which it was executed
+     */
+    synchronized void start(final Process process, final long startNanos) {
+        myProcess = process;
+        myStartNanos = startNanos;
+        if (!bStopped) {
+            myFuture = SCHEDULER.scheduleAtFixedRate(this, 0, myIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop sampling; the samples taken remain available.
+     */
+    synchronized void stop() {
+        bStopped = true;
+        if (myFuture != null) {
+            myFuture.cancel(false);
+            myFuture = null;
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            sample(true);
+        } catch (final RuntimeException e) {
+            // an exception would silently end the periodic sampling
+            LOGGER.warn("Could not sample process: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Take a sample now, if the process can still be observed.
+     * @return the sample, or null if the process has gone
+     */
+    ProcessSample sample() {
+        return sample(false);
+    }
+
+    private ProcessSample sample(final boolean periodic) {
+        final Process process = myProcess;
+        if (process == null || !process.isAlive()) {
+            return null; // once reaped, its pid may be reused
+        }
+        final long elapsedNanos = System.nanoTime() - myStartNanos;
+        final long cpuNanos = process.info().totalCpuDuration().map(cpu -> cpu.toNanos()).orElse(-1L);
+        final File procDir = new File(PROC, Long.toString(process.pid()));
+        final long residentBytes = parseResidentBytes(readLines(new File(procDir, "status")));
+        final List<String> io = readLines(new File(procDir, "io"));
+        final long readBytes = parseCounter(io, "rchar");
+        final long writtenBytes = parseCounter(io, "wchar");
+        if (cpuNanos == -1 && residentBytes == -1 && readBytes == -1) {
+            return null; // exited, or nothing observable on this platform
+        }
+        final ProcessSample sample = new ProcessSample(elapsedNanos, cpuNanos, residentBytes, readBytes, writtenBytes);
+        synchronized (this) {
+            if (periodic && bStopped) {
+                return null; // stopped while sampling
+            }
+            if (mySamples.size() == myMaxSamples) {
+                mySamples.removeFirst();
+            }
+            mySamples.addLast(sample);
+            if (cpuNanos > myLastCpuNanos) {
+                myLastCpuNanos = cpuNanos;
+            }
+        }
+        return sample;
+    }
+
+    /**
+     * @return a copy of the samples kept, oldest first
+     */
+    synchronized List<ProcessSample> getSamples() {
+        return new ArrayList<>(mySamples);
+    }
+
+    /**
+     * @return the highest CPU time sampled, in nanoseconds, or -1
+     */
+    synchronized long getLastCpuNanos() {
+        return myLastCpuNanos;
+    }
+
+    private static List<String> readLines(final File file) {
+        if (!file.exists()) {
+            return Collections.emptyList();
+        }
+        try {
+            return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            // the process may exit between the check and the read
+            LOGGER.debug("Could not read {}: {}", file, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    /**
+     * @param statusLines the lines of /proc/&lt;pid&gt;/status
+     * @return the VmRSS in bytes, or -1 if absent
+     */
+    static long parseResidentBytes(final List<String> statusLines) {
+        for (final String line : statusLines) {
+            if (line.startsWith("VmRSS:")) {
+                final String[] fields = line.substring(6).trim().split("\\s+");
+                try {
+                    final long value = Long.parseLong(fields[0]);
+                    return fields.length > 1 && fields[1].equalsIgnoreCase("kB") ? value * 1024 : value;
+                } catch (final NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param ioLines the lines of /proc/&lt;pid&gt;/io
+     * @param name the name of the counter
+     * @return the counter's value, or -1 if absent
+     */
+    static long parseCounter(final List<String> ioLines, final String name) {
+        final String prefix = name + ":";
+        for (final String line : ioLines) {
+            if (line.startsWith(prefix)) {
+                try {
+                    return Long.parseLong(line.substring(prefix.length()).trim());
+                } catch (final NumberFormatException e) {
+                    return -1;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+/**
+ * The resources used by a process executed by an Executor, available once
+ * it has exited.
+ *
+ * @author matt
+ *
+ */
+public final class ProcessUsage {
+    private final long myPid;
+    private final int myExitValue;
+    private final long myWallNanos;
+    private final long myCpuNanos;
+    private final long myOutputBytes;
+
+    /**
+     * @param pid the process id
+     * @param exitValue the exit code
+     * @param wallNanos the time from execution to exit
+     * @param cpuNanos the CPU time used, or -1 if unknown
+     * @param outputBytes the bytes read from Standard Output and Standard
+     * Error, once both had ended
+     */
+    public ProcessUsage(final long pid, final int exitValue, final long wallNanos, final long cpuNanos, final long outputBytes) {
+        myPid = pid;
+        myExitValue = exitValue;
+        myWallNanos = wallNanos;
+        myCpuNanos = cpuNanos;
+        myOutputBytes = outputBytes;
+    }
+
+    /**
+     * @return the process id
+     */
+    public long getPid() {
+        return myPid;
+    }
+
+    /**
+     * @return the exit code
+     */
+    public int getExitValue() {
+        return myExitValue;
+    }
+
+    /**
+     * @return the time, in nanoseconds, from execution to exit
+     */
+    public long getWallNanos() {
+        return myWallNanos;
+    }
+
+    /**
+     * The CPU time used by the process, as last observed while it was
+     * running. The operating system discards this once the process has
+     * exited, so it is observed when its output ends (and, if sampled,
+     * periodically), and so is a lower bound; it is -1 if never observed.
+     * @return the CPU time in nanoseconds, or -1 if unknown
+     */
+    public long getCpuNanos() {
+        return myCpuNanos;
+    }
+
+    /**
+     * @return the number of bytes read from the process's Standard Output
+     * and Standard Error, once both had ended: all its output, unless it was
+     * closed before being read to its end, or discarded unread by
+     * Executor.executeAsync
+     */
+    public long getOutputBytes() {
+        return myOutputBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "pid " + myPid + " exit " + myExitValue + " wall " + myWallNanos + "ns cpu "
+                + (myCpuNanos < 0 ? "unknown" : myCpuNanos + "ns") + " output " + myOutputBytes + " bytes";
+    }
+}
@@ -55,10 +55,10 @@ public class INIFile {
         mySectionMap = new HashMap < String, Map<String, String> > ();
         myFile = new File(fileName);
         if (myFile.exists()) {
-            LOGGER.debug("Loading existing INI file: " + fileName);
+            LOGGER.debug("Loading existing INI file: {}", fileName);
             loadFile();
         } else {
-            LOGGER.debug("Creating new INI file: " + fileName);
+            LOGGER.debug("Creating new INI file: {}", fileName);
             saveFile();
         }
         bDirty = false;
@@ -129,7 +129,7 @@ public class INIFile {
             try {
                 while (true) {
                     final String line = br.readLine();
-                    LOGGER.debug("Read line '" + line + "'");
+                    LOGGER.debug("Read line '{}'", line);
                     if (line == null) {
                         break;
                     }
@@ -137,7 +137,7 @@ public class INIFile {
                     sectionMatcher.reset(line);
                     if (sectionMatcher.lookingAt()) {
                         currentSectionName = sectionMatcher.group(1);
-                        LOGGER.debug("Found section [" + currentSectionName + "]");
+                        LOGGER.debug("Found section [{}]", currentSectionName);
                         final Map<String, String> newSectionMap = new HashMap<String, String>();
                         currentSectionMap = newSectionMap;
                         mySectionMap.put(currentSectionName, newSectionMap);
@@ -151,7 +151,7 @@ public class INIFile {
                             } else {
                                 final String name = nvpMatcher.group(1);
                                 final String value = nvpMatcher.group(2);
-                                LOGGER.debug("[" + currentSectionName + "] " + name + "=" + value);
+                                LOGGER.debug("[{}] {}={}", currentSectionName, name, value);
                                 currentSectionMap.put(name, value);
                             }
                         } else {
@@ -191,12 +191,12 @@ public class INIFile {
      */
     public final String getValue(final String sectionName, final String name) {
         if (!mySectionMap.containsKey(sectionName)) {
-            LOGGER.debug("getValue(" + sectionName + "," + name + "): not found [section]");
+            LOGGER.debug("getValue({},{}): not found [section]", sectionName, name);
             return null;
         } else {
             final Map<String, String> sectionMap = mySectionMap.get(sectionName);
             final String value = sectionMap.get(name); // returns null on 'not found'
-            LOGGER.debug("getValue(" + sectionName + "," + name + "): returning '" + value + "'");
+            LOGGER.debug("getValue({},{}): returning '{}'", sectionName, name, value);
             return value;
         }
     }
@@ -221,15 +221,14 @@ public class INIFile {
      */
     public final synchronized void removeValue(final String sectionName, final String name) {
         if (!mySectionMap.containsKey(sectionName)) {
-            LOGGER.debug("removeValue(" + sectionName + ", " + name + "): not found [section]");
+            LOGGER.debug("removeValue({}, {}): not found [section]", sectionName, name);
             return;
         }
         bDirty = true;
         final Map<String, String> sectionMap = mySectionMap.get(sectionName);
         sectionMap.remove(name);
         if (sectionMap.size() == 0) {
-            LOGGER.debug("removeValue(" + sectionName + ", " + name
-                    + "): final name returned from [section]; removing [section]");
+            LOGGER.debug("removeValue({}, {}): final name returned from [section]; removing [section]", sectionName, name);
             mySectionMap.remove(sectionName);
         }
         saveFile();
@@ -254,11 +253,11 @@ public class INIFile {
         if (!mySectionMap.containsKey(sectionName)) {
             sectionMap = new HashMap<String, String>();
             mySectionMap.put(sectionName, sectionMap);
-            LOGGER.debug("setValue(" + sectionName + "," + name + "," + value + "): created new [class]");
+            LOGGER.debug("setValue({},{},{}): created new [class]", sectionName, name, value);
         } else {
             sectionMap = mySectionMap.get(sectionName);
         }
-        LOGGER.debug("setValue(" + sectionName + "," + name + "," + value + "): saving");
+        LOGGER.debug("setValue({},{},{}): saving", sectionName, name, value);
         sectionMap.put(name, value);
         saveFile();
     }
@@ -348,7 +347,7 @@ public class INIFile {
      */
     public final String[] getArray(final String sectionName) {
         if (!mySectionMap.containsKey(sectionName)) {
-            LOGGER.debug("getArray(" + sectionName + "): not found [section]");
+            LOGGER.debug("getArray({}): not found [section]", sectionName);
             return new String[0];
         } else {
             final Map<String, String> sectionMap = mySectionMap.get(sectionName);
@@ -372,7 +371,7 @@ public class INIFile {
             arrayMap.put("" + (i + 1), array[i]);
         }
         mySectionMap.put(sectionName, arrayMap);
-        LOGGER.debug("setArray(" + sectionName + ", ...): saving");
+        LOGGER.debug("setArray({}, ...): saving", sectionName);
         saveFile();
     }
     
@@ -382,11 +381,11 @@ public class INIFile {
      */
     public final synchronized void removeSection(final String sectionName) {
         if (!mySectionMap.containsKey(sectionName)) {
-            LOGGER.debug("removeSection(" + sectionName + "): not found [section]");
+            LOGGER.debug("removeSection({}): not found [section]", sectionName);
         } else {
             bDirty = true;
             mySectionMap.remove(sectionName);
-            LOGGER.debug("removeSection(" + sectionName + "): saving");
+            LOGGER.debug("removeSection({}): saving", sectionName);
             saveFile();
         }
     }
@@ -69,9 +69,12 @@ public class CapturingAppender extends AbstractAppender {
         }
     }
 
+    /**
+     * @return an unmodifiable copy of the events captured so far
+     */
     public List<LogEvent> getEvents() {
         synchronized (events) {
-            return Collections.unmodifiableList(events);
+            return Collections.unmodifiableList(new ArrayList<LogEvent>(events));
         }
     }
 
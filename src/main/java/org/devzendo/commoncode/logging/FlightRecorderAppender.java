@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.commoncode.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginConfiguration;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.devzendo.commoncode.concurrency.DaemonThreadFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A log4j Appender that records the most recent events it receives (typically
+ * at DEBUG, even when the console shows only INFO) in a fixed-size ring, and
+ * writes them to another appender (typically the console) only when
+ * triggered:
+ * <ul>
+ * <li>by calling dump();</li>
+ * <li>when it receives an event at or above a trigger level (ERROR by
+ * default);</li>
+ * <li>when a signal file appears, which is then deleted.</li>
+ * </ul>
+ * Each dump writes the events recorded since the previous dump, bracketed by
+ * marker lines, so the context leading up to an incident is available without
+ * running at DEBUG all the time. If the target is also sent events directly
+ * at some level (typically INFO, for the console), give that as the target
+ * level: events at or above it are not dumped, as the target has shown them
+ * already.
+ *
+ * Note that log4j is now a provided dependency of this project,
+ * having switched over to slf4j. This class would be of use only if you
+ * are using log4j as your top-level application logging framework.
+ *
+ * @author matt
+ *
+ */
+@Plugin(
+        name = FlightRecorderAppender.PLUGIN_NAME,
+        category = Core.CATEGORY_NAME,
+        elementType = Appender.ELEMENT_TYPE,
+        printObject = true)
+public class FlightRecorderAppender extends RingCapturingAppender {
+    public static final String PLUGIN_NAME = "FlightRecorder";
+    public static final int DEFAULT_CAPACITY = 4096;
+    public static final long DEFAULT_SIGNAL_POLL_MILLIS = 1000L;
+
+    private final Configuration configuration;
+    private final String targetName;
+    private final Level triggerLevel;
+    private final Level targetLevel;
+    private final File signalFile;
+    private final long signalPollMillis;
+
+    private final Object dumpLock = new Object();
+    private long dumpedSequence = 0; // guarded by lock on dumpLock
+    private boolean dumping = false; // guarded by lock on dumpLock
+    private ScheduledExecutorService signalPoller;
+
+    @PluginFactory
+    public static FlightRecorderAppender createAppender(
+            @PluginAttribute(value = "name", defaultString = "FlightRecorder") final String name,
+            @PluginAttribute(value = "capacity", defaultInt = DEFAULT_CAPACITY) final int capacity,
+            @PluginAttribute(value = "target", defaultString = "CONSOLE") final String target,
+            @PluginAttribute(value = "triggerLevel", defaultString = "ERROR") final String triggerLevel,
+            @PluginAttribute(value = "targetLevel", defaultString = "OFF") final String targetLevel,
+            @PluginAttribute(value = "signalFile") final String signalFile,
+            @PluginAttribute(value = "signalPollMillis", defaultLong = DEFAULT_SIGNAL_POLL_MILLIS) final long signalPollMillis,
+            @PluginConfiguration final Configuration configuration) {
+        return new FlightRecorderAppender(name, capacity, configuration, target, Level.toLevel(triggerLevel, Level.ERROR),
+                Level.toLevel(targetLevel, Level.OFF), signalFile == null || signalFile.isEmpty() ? null : new File(signalFile), signalPollMillis);
+    }
+
+    /**
+     * Create a FlightRecorderAppender
+     * @param name the appender's name
+     * @param capacity the number of events to keep
+     * @param configuration the configuration in which the target appender
+     * is found
+     * @param targetName the name of the appender that dumps are written to
+     * @param triggerLevel events at or above this level trigger a dump
+     * @param targetLevel events at or above this level are sent to the target
+     * directly, so are not dumped; OFF if none are
+     * @param signalFile if non-null, a file whose appearance triggers a dump
+     * @param signalPollMillis how often to check for the signal file
+     */
+    public FlightRecorderAppender(final String name, final int capacity, final Configuration configuration,
+                                  final String targetName, final Level triggerLevel, final Level targetLevel,
+                                  final File signalFile, final long signalPollMillis) {
+        super(name, capacity);
+        this.configuration = configuration;
+        this.targetName = targetName;
+        this.triggerLevel = triggerLevel;
+        this.targetLevel = targetLevel;
+        this.signalFile = signalFile;
+        this.signalPollMillis = signalPollMillis;
+    }
+
+    @Override
+    public void start() {
+        super.start();
+        if (signalFile != null) {
+            signalPoller = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("flight-recorder-signal-"));
+            signalPoller.scheduleWithFixedDelay(this::checkSignalFile, signalPollMillis, signalPollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public boolean stop(final long timeout, final TimeUnit timeUnit) {
+        if (signalPoller != null) {
+            signalPoller.shutdownNow();
+            signalPoller = null;
+        }
+        return super.stop(timeout, timeUnit);
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        super.append(event);
+        if (event.getLevel().isMoreSpecificThan(triggerLevel)) {
+            dump();
+        }
+    }
+
+    private void checkSignalFile() {
+        if (signalFile.exists()) {
+            if (!signalFile.delete()) {
+                LOGGER.warn("Could not delete flight recorder signal file " + signalFile);
+            }
+            dump();
+        }
+    }
+
+    /**
+     * Write the events recorded since the last dump, that the target has not
+     * already been sent, to the target appender.
+     * @return the number of events written
+     */
+    public int dump() {
+        final Appender target = configuration == null ? null : configuration.getAppender(targetName);
+        if (target == null) {
+            LOGGER.warn("Flight recorder target appender '" + targetName + "' not found");
+            return 0;
+        }
+        final List<LogEvent> events = new ArrayList<>();
+        synchronized (dumpLock) {
+            if (dumping) {
+                return 0; // something logged at the trigger level while dumping
+            }
+            dumping = true;
+            try {
+                dumpedSequence = snapshot(dumpedSequence, event -> !event.getLevel().isMoreSpecificThan(targetLevel), events);
+                target.append(marker("Flight recorder dump of " + events.size() + " events begins"));
+                for (final LogEvent event : events) {
+                    target.append(event);
+                }
+                target.append(marker("Flight recorder dump ends"));
+            } finally {
+                dumping = false;
+            }
+        }
+        return events.size();
+    }
+
+    private LogEvent marker(final String message) {
+        return Log4jLogEvent.newBuilder()
+                .setLoggerName(getName())
+                .setLevel(Level.INFO)
+                .setMessage(new SimpleMessage(message))
+                .setTimeMillis(System.currentTimeMillis())
+                .build();
+    }
+}
@@ -0,0 +1,275 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.devzendo.commoncode.concurrency.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A registry of per-logger level overrides that can be changed while the
+ * program runs, either by calling setLevel/clearLevel, or by editing a
+ * control file that the registry watches.
+ * <p>
+ * The control file is a properties file mapping logger (usually package)
+ * names to level names, e.g.
+ * <pre>
+ * root=INFO
+ * org.devzendo.commoncode.network=DEBUG
+ * </pre>
+ * Levels from the control file take precedence over those set by the API.
+ * When an entry is removed from the file, that logger reverts to its API
+ * level, if any, or inherits its parent's level (the root logger keeps its
+ * last level). Unrecognised level names are ignored with a warning.
+ * <p>
+ * Overrides are applied via log4j's Configurator, so a logger at a disabled
+ * level costs only a level check; they are reapplied when Logging
+ * reconfigures log4j.
+ *
+ * Note that log4j is now a provided dependency of this project,
+ * having switched over to slf4j. This class would be of use only if you
+ * are using log4j as your top-level application logging framework.
+ *
+ * @author matt
+ *
+ */
+public final class LogLevelRegistry {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogLevelRegistry.class);
+    private static LogLevelRegistry myInstance = null;
+
+    /**
+     * The name used in the control file for the root logger.
+     */
+    public static final String ROOT = "root";
+
+    /**
+     * The default interval between checks of the control file.
+     */
+    public static final long DEFAULT_POLL_MILLIS = 1000L;
+
+    private final Object lock = new Object();
+    private final Map<String, Level> apiLevels = new TreeMap<>(); // guarded by lock
+    private final Map<String, Level> fileLevels = new TreeMap<>(); // guarded by lock
+    private File controlFile; // guarded by lock
+    private long controlFileModified; // guarded by lock
+    private long controlFileLength; // guarded by lock
+    private ScheduledExecutorService controlFilePoller; // guarded by lock
+
+    private LogLevelRegistry() {
+        super();
+    }
+
+    /**
+     * Singleton constructor for LogLevelRegistry
+     * @return the single instance of LogLevelRegistry.
+     */
+    public static synchronized LogLevelRegistry getInstance() {
+        if (myInstance == null) {
+            myInstance = new LogLevelRegistry();
+        }
+        return myInstance;
+    }
+
+    /**
+     * Set the level of a logger and its descendants (unless they have their
+     * own overrides).
+     * @param loggerName e.g. org.springframework, or "root"
+     * @param level e.g. Level.WARN
+     */
+    public void setLevel(final String loggerName, final Level level) {
+        if (level == null) {
+            throw new IllegalArgumentException("Level of logger '" + loggerName + "' cannot be null");
+        }
+        synchronized (lock) {
+            apiLevels.put(loggerName, level);
+            apply(loggerName);
+        }
+    }
+
+    /**
+     * Remove a level set by setLevel, so that the logger reverts to its
+     * control file level, if any, or inherits its parent's level.
+     * @param loggerName e.g. org.springframework, or "root"
+     */
+    public void clearLevel(final String loggerName) {
+        synchronized (lock) {
+            if (apiLevels.remove(loggerName) != null) {
+                apply(loggerName);
+            }
+        }
+    }
+
+    /**
+     * Remove all levels set by setLevel.
+     */
+    public void clearLevels() {
+        synchronized (lock) {
+            final Set<String> names = new HashSet<>(apiLevels.keySet());
+            apiLevels.clear();
+            names.forEach(this::apply);
+        }
+    }
+
+    /**
+     * @param loggerName e.g. org.springframework, or "root"
+     * @return the level overriding that logger's configured level, or null
+     * if there is none
+     */
+    public Level getLevel(final String loggerName) {
+        synchronized (lock) {
+            final Level fileLevel = fileLevels.get(loggerName);
+            return fileLevel != null ? fileLevel : apiLevels.get(loggerName);
+        }
+    }
+
+    /**
+     * @return the overriding levels in force, by logger name
+     */
+    public Map<String, Level> getLevels() {
+        synchronized (lock) {
+            final Map<String, Level> levels = new TreeMap<>(apiLevels);
+            levels.putAll(fileLevels);
+            return Collections.unmodifiableMap(levels);
+        }
+    }
+
+    /**
+     * Reapply all overrides, e.g. after log4j has been reconfigured.
+     */
+    public void reapply() {
+        synchronized (lock) {
+            getLevels().keySet().forEach(this::apply);
+        }
+    }
+
+    /**
+     * Watch a control file, applying its levels now, and whenever it changes.
+     * Any previously watched file is no longer watched, and its levels are
+     * removed.
+     * @param file the control file
+     * @param pollMillis how often to check the file for changes
+     */
+    public void watchControlFile(final File file, final long pollMillis) {
+        if (pollMillis <= 0) {
+            throw new IllegalArgumentException("Control file poll interval " + pollMillis + "ms is not positive");
+        }
+        synchronized (lock) {
+            stopWatchingControlFile();
+            controlFile = file;
+            controlFileModified = -1;
+            controlFileLength = -1;
+            checkControlFile();
+            controlFilePoller = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("log-level-control-"));
+            controlFilePoller.scheduleWithFixedDelay(this::checkControlFile, pollMillis, pollMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop watching the control file, and remove its levels.
+     */
+    public void stopWatchingControlFile() {
+        synchronized (lock) {
+            if (controlFilePoller != null) {
+                controlFilePoller.shutdownNow();
+                controlFilePoller = null;
+            }
+            controlFile = null;
+            replaceFileLevels(Collections.emptyMap());
+        }
+    }
+
+    /**
+     * Check the control file now, rather than waiting for the next poll.
+     */
+    public void checkControlFile() {
+        synchronized (lock) {
+            if (controlFile == null) {
+                return;
+            }
+            final long modified = controlFile.lastModified(); // 0 if it does not exist
+            final long length = controlFile.length();
+            if (modified == controlFileModified && length == controlFileLength) {
+                return;
+            }
+            controlFileModified = modified;
+            controlFileLength = length;
+            replaceFileLevels(modified == 0 ? Collections.emptyMap() : readControlFile(controlFile));
+        }
+    }
+
+    private static Map<String, Level> readControlFile(final File file) {
+        final Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        } catch (final IOException e) {
+            LOGGER.warn("Could not read log level control file {}: {}", file, e.getMessage());
+        }
+        final Map<String, Level> levels = new TreeMap<>();
+        for (final String name : properties.stringPropertyNames()) {
+            final String levelName = properties.getProperty(name).trim();
+            final Level level = Level.toLevel(levelName, null);
+            if (level == null) {
+                LOGGER.warn("Unknown level '{}' for logger '{}' in log level control file {}", levelName, name, file);
+            } else {
+                levels.put(name.trim(), level);
+            }
+        }
+        return levels;
+    }
+
+    // Called with lock held
+    private void replaceFileLevels(final Map<String, Level> newLevels) {
+        final Set<String> changed = new HashSet<>(fileLevels.keySet());
+        changed.addAll(newLevels.keySet());
+        changed.removeIf(name -> newLevels.get(name) == fileLevels.get(name));
+        fileLevels.clear();
+        fileLevels.putAll(newLevels);
+        for (final String name : changed) {
+            apply(name);
+            LOGGER.info("Log level of '{}' is now {}", name, getLevel(name));
+        }
+    }
+
+    // Called with lock held; a null level makes the logger inherit its parent's level
+    private void apply(final String loggerName) {
+        final Level level = getLevel(loggerName);
+        if (ROOT.equals(loggerName) || LogManager.ROOT_LOGGER_NAME.equals(loggerName)) {
+            if (level != null) {
+                Configurator.setRootLevel(level);
+            }
+        } else {
+            Configurator.setLevel(loggerName, level);
+        }
+    }
+}
@@ -19,13 +19,14 @@ package org.devzendo.commoncode.logging;
 
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
 import org.apache.logging.log4j.core.Logger;
 import org.apache.logging.log4j.core.LoggerContext;
-import org.apache.logging.log4j.core.config.Configurator;
 import org.apache.logging.log4j.core.config.builder.api.*;
 import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
 import org.apache.logging.log4j.core.layout.PatternLayout;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 /**
@@ -56,14 +57,45 @@ public final class Logging {
         return myInstance;
     }
     
+    /**
+     * The default number of events an asynchronous logging queue can hold.
+     */
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 1024;
+
     private PatternLayout myLayout;
     private boolean mDebug;
     private boolean mWarn;
+    private boolean mAsync;
+    private int mAsyncQueueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+    private boolean mAsyncBlocking = true;
+    private boolean mGarbageFree;
+    private int mFlightRecorderCapacity; // 0: disabled
+    private String mFlightRecorderSignalFile;
+    private Level mLevel = Level.INFO;
 
     /**
      * Sets up log4j given command line arguments, called only once at the start
      * of main, with the command line args. Changes to the layout (for example)
      * can be made after this call.
+     * <p>
+     * As well as the level and layout flags, the following control how log
+     * events are written:
+     * <ul>
+     * <li>-async: events are passed to a background thread via a bounded
+     * queue, and written to the console in batches, so logging does not block
+     * on console output;</li>
+     * <li>-asyncqueue=N: the size of that queue (implies -async);</li>
+     * <li>-asyncdiscard: when the queue is full, discard events rather than
+     * waiting for space (implies -async);</li>
+     * <li>-gcfree: garbage-free logging, as for setGarbageFreeLogging
+     * (not under -async or -flightrecorder, which copy every event);</li>
+     * <li>-flightrecorder, -flightrecorder=N: record the last N (default
+     * 4096) events at DEBUG, whatever the console's level, and write them to
+     * the console when an ERROR is logged, dumpFlightRecorder() is called,
+     * or the file given by -flightsignal=path appears;</li>
+     * <li>-levelfile=path: watch the given control file for per-logger level
+     * overrides, which can be changed while running; see LogLevelRegistry.</li>
+     * </ul>
      * @param origArgs the command line arguments
      * @return those arguments with the logging arguments removed
      */
@@ -72,6 +104,12 @@ public final class Logging {
         boolean bLevel = false;
         mDebug = false;
         mWarn = false;
+        mAsync = false;
+        mAsyncQueueSize = DEFAULT_ASYNC_QUEUE_SIZE;
+        mAsyncBlocking = true;
+        mGarbageFree = false;
+        mFlightRecorderCapacity = 0;
+        mFlightRecorderSignalFile = null;
         boolean bClasses = false;
         boolean bThreads = false;
         boolean bTimes = false;
@@ -108,29 +146,253 @@ public final class Logging {
                 bTimes = true;
                 continue;
             }
+            if (arg.equals("-async")) {
+                mAsync = true;
+                continue;
+            }
+            if (arg.startsWith("-asyncqueue=")) {
+                mAsync = true;
+                mAsyncQueueSize = parsePositiveInteger("Asynchronous logging queue size", arg.substring("-asyncqueue=".length()));
+                continue;
+            }
+            if (arg.equals("-asyncdiscard")) {
+                mAsync = true;
+                mAsyncBlocking = false;
+                continue;
+            }
+            if (arg.equals("-gcfree")) {
+                mGarbageFree = true;
+                continue;
+            }
+            if (arg.equals("-flightrecorder")) {
+                mFlightRecorderCapacity = FlightRecorderAppender.DEFAULT_CAPACITY;
+                continue;
+            }
+            if (arg.startsWith("-flightrecorder=")) {
+                mFlightRecorderCapacity = parsePositiveInteger("Flight recorder capacity", arg.substring("-flightrecorder=".length()));
+                continue;
+            }
+            if (arg.startsWith("-flightsignal=")) {
+                mFlightRecorderSignalFile = arg.substring("-flightsignal=".length());
+                if (mFlightRecorderCapacity == 0) {
+                    mFlightRecorderCapacity = FlightRecorderAppender.DEFAULT_CAPACITY;
+                }
+                continue;
+            }
+            if (arg.startsWith("-levelfile=")) {
+                LogLevelRegistry.getInstance().watchControlFile(
+                        new File(arg.substring("-levelfile=".length())), LogLevelRegistry.DEFAULT_POLL_MILLIS);
+                continue;
+            }
             out.add(arg);
         }
 
-        ConfigurationBuilder<BuiltConfiguration> builder =
+        mLevel = mDebug ? Level.DEBUG : mWarn ? Level.WARN : Level.INFO;
+        reconfigure(createLayout(bLevel, bClasses, bThreads, bTimes));
+
+        return out;
+    }
+
+    private static int parsePositiveInteger(final String what, final String value) {
+        try {
+            final int number = Integer.parseInt(value);
+            if (number > 0) {
+                return number;
+            }
+        } catch (final NumberFormatException nfe) {
+            // fall through
+        }
+        throw new IllegalArgumentException(what + " '" + value + "' is not a positive integer");
+    }
+
+    /**
+     * Switch to asynchronous logging: log events are passed to a background
+     * thread via a bounded queue, and written to the console in batches.
+     * @param queueSize the number of events the queue can hold
+     * @param blockWhenFull if true, logging waits for space when the queue
+     * is full; if false, events that don't fit are discarded
+     */
+    public void setAsyncLogging(final int queueSize, final boolean blockWhenFull) {
+        if (queueSize <= 0) {
+            throw new IllegalArgumentException("Asynchronous logging queue size '" + queueSize + "' is not a positive integer");
+        }
+        mLevel = currentLevel();
+        mAsync = true;
+        mAsyncQueueSize = queueSize;
+        mAsyncBlocking = blockWhenFull;
+        reconfigureKeepingLayout();
+    }
+
+    /**
+     * Switch back to synchronous logging, where each log call writes to the
+     * console before returning.
+     */
+    public void setSyncLogging() {
+        mLevel = currentLevel();
+        mAsync = false;
+        reconfigureKeepingLayout();
+    }
+
+    /**
+     * @return true iff logging is asynchronous
+     */
+    public boolean isAsyncLogging() {
+        return mAsync;
+    }
+
+    /**
+     * Choose garbage-free logging, in which log4j formats events into
+     * reused, thread-local buffers and encodes them straight into the
+     * console's byte buffer, which is written directly to the standard
+     * output file descriptor, or (the default) normal logging via System.out,
+     * which respects System.setOut.
+     * <p>
+     * This needs log4j's thread-locals and direct encoders, which are enabled
+     * unless the log4j2.enableThreadlocals or log4j2.enableDirectEncoders
+     * system properties were false when log4j started (or it detected a web
+     * application), and a layout whose conversions are all garbage-free (as
+     * those of setupLoggingFromArgs are). It does not apply under
+     * asynchronous logging or the flight recorder, whose appenders copy each
+     * event; a warning is logged if it cannot apply.
+     * @param garbageFree true for garbage-free logging
+     */
+    public void setGarbageFreeLogging(final boolean garbageFree) {
+        mLevel = currentLevel();
+        mGarbageFree = garbageFree;
+        reconfigureKeepingLayout();
+    }
+
+    /**
+     * @return true iff garbage-free logging has been chosen, and can apply
+     * in the current configuration
+     */
+    public boolean isGarbageFreeLogging() {
+        return mGarbageFree && garbageFreeObstacle() == null;
+    }
+
+    // Why garbage-free logging cannot apply, or null if it can
+    private String garbageFreeObstacle() {
+        if (!org.apache.logging.log4j.util.Constants.ENABLE_THREADLOCALS
+                || !org.apache.logging.log4j.core.util.Constants.ENABLE_DIRECT_ENCODERS) {
+            return "log4j's thread-locals or direct encoders are disabled";
+        }
+        if (mAsync) {
+            return "asynchronous logging copies each event";
+        }
+        if (mFlightRecorderCapacity > 0) {
+            return "the flight recorder copies each event";
+        }
+        return null;
+    }
+
+    /**
+     * Start the flight recorder: the last capacity events are recorded at
+     * DEBUG, whatever the console's level, and are written to the console
+     * when an ERROR is logged, dumpFlightRecorder() is called, or the signal
+     * file appears.
+     * @param capacity the number of events to record
+     * @param signalFile a file whose appearance triggers a dump (it is then
+     * deleted), or null
+     */
+    public void enableFlightRecorder(final int capacity, final File signalFile) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Flight recorder capacity '" + capacity + "' is not a positive integer");
+        }
+        mLevel = currentLevel();
+        mFlightRecorderCapacity = capacity;
+        mFlightRecorderSignalFile = signalFile == null ? null : signalFile.getPath();
+        reconfigureKeepingLayout();
+    }
+
+    /**
+     * Stop the flight recorder, discarding its recorded events.
+     */
+    public void disableFlightRecorder() {
+        mLevel = currentLevel();
+        mFlightRecorderCapacity = 0;
+        reconfigureKeepingLayout();
+    }
+
+    /**
+     * Write the events recorded by the flight recorder since its last dump to
+     * the console.
+     * @return the number of events written; 0 if the flight recorder is not
+     * enabled
+     */
+    public int dumpFlightRecorder() {
+        final Appender recorder = ((LoggerContext) LogManager.getContext(false)).getConfiguration().getAppender("FLIGHTRECORDER");
+        return recorder instanceof FlightRecorderAppender ? ((FlightRecorderAppender) recorder).dump() : 0;
+    }
+
+    // The level at which events reach the console
+    private Level currentLevel() {
+        return mFlightRecorderCapacity > 0 ? mLevel : ((Logger) LogManager.getRootLogger()).getLevel();
+    }
+
+    private void reconfigureKeepingLayout() {
+        final Appender console = ((LoggerContext) LogManager.getContext(false)).getConfiguration().getAppender("CONSOLE");
+        final String pattern = console != null && console.getLayout() instanceof PatternLayout
+                ? ((PatternLayout) console.getLayout()).getConversionPattern()
+                : createLayout(false, false, false, false);
+        reconfigure(pattern);
+    }
+
+    private void reconfigure(final String pattern) {
+        final ConfigurationBuilder<BuiltConfiguration> builder =
                 ConfigurationBuilderFactory.newConfigurationBuilder();
 
-        LayoutComponentBuilder myLayout = builder.newLayout("PatternLayout")
-                .addAttribute("pattern", createLayout(bLevel, bClasses, bThreads, bTimes));
+        final LayoutComponentBuilder layout = builder.newLayout("PatternLayout")
+                .addAttribute("pattern", pattern);
 
-        AppenderComponentBuilder consoleAppender = builder.newAppender("CONSOLE", "Console")
+        final AppenderComponentBuilder consoleAppender = builder.newAppender("CONSOLE", "Console")
                 .addAttribute("target", "SYSTEM_OUT")
-                .add(myLayout);
+                .add(layout);
+        if (mGarbageFree) {
+            consoleAppender.addAttribute("direct", true);
+        }
+        if (mAsync) {
+            // The async appender flushes at the end of each batch it takes off its queue.
+            consoleAppender.addAttribute("immediateFlush", false);
+        }
         builder.add(consoleAppender);
 
-        // Configure the root logger to use only this appender
-        RootLoggerComponentBuilder rootLogger = builder.newRootLogger(mDebug ? Level.DEBUG : mWarn ? Level.WARN : Level.INFO)
-                .add(builder.newAppenderRef("CONSOLE"));
+        String rootAppender = "CONSOLE";
+        if (mAsync) {
+            final AppenderComponentBuilder asyncAppender = builder.newAppender("ASYNC", "Async")
+                    .addAttribute("bufferSize", mAsyncQueueSize)
+                    .addAttribute("blocking", mAsyncBlocking)
+                    .addComponent(builder.newAppenderRef("CONSOLE"));
+            builder.add(asyncAppender);
+            rootAppender = "ASYNC";
+        }
+
+        final RootLoggerComponentBuilder rootLogger;
+        if (mFlightRecorderCapacity > 0) {
+            // Everything goes to the recorder; only the usual level reaches the console.
+            final AppenderComponentBuilder recorder = builder.newAppender("FLIGHTRECORDER", FlightRecorderAppender.PLUGIN_NAME)
+                    .addAttribute("capacity", mFlightRecorderCapacity)
+                    .addAttribute("target", "CONSOLE")
+                    .addAttribute("targetLevel", mLevel.name());
+            if (mFlightRecorderSignalFile != null) {
+                recorder.addAttribute("signalFile", mFlightRecorderSignalFile);
+            }
+            builder.add(recorder);
+            rootLogger = builder.newRootLogger(Level.DEBUG)
+                    .add(builder.newAppenderRef(rootAppender).addAttribute("level", mLevel))
+                    .add(builder.newAppenderRef("FLIGHTRECORDER"));
+        } else {
+            // Configure the root logger to use only this appender
+            rootLogger = builder.newRootLogger(mLevel)
+                    .add(builder.newAppenderRef(rootAppender));
+        }
         builder.add(rootLogger);
 
-        LoggerContext context = (LoggerContext) LogManager.getContext(false);
+        final LoggerContext context = (LoggerContext) LogManager.getContext(false);
         context.reconfigure(builder.build());
-
-        return out;
+        LogLevelRegistry.getInstance().reapply();
+        if (mGarbageFree && garbageFreeObstacle() != null) {
+            LogManager.getLogger(Logging.class).warn("Logging is not garbage-free: " + garbageFreeObstacle());
+        }
     }
 
     private String createLayout(
@@ -167,24 +429,8 @@ public final class Logging {
      * @param pattern the new layout
      */
     public void setLayout(final String pattern) {
-        final ConfigurationBuilder<BuiltConfiguration> builder =
-                ConfigurationBuilderFactory.newConfigurationBuilder();
-
-        final LayoutComponentBuilder layout = builder.newLayout("PatternLayout")
-                .addAttribute("pattern", pattern);
-
-        final AppenderComponentBuilder consoleAppender = builder.newAppender("CONSOLE", "Console")
-                .addAttribute("target", "SYSTEM_OUT")
-                .add(layout);
-        builder.add(consoleAppender);
-
-        final RootLoggerComponentBuilder rootLogger =
-                builder.newRootLogger(((Logger) LogManager.getRootLogger()).getLevel())
-                .add(builder.newAppenderRef("CONSOLE"));
-        builder.add(rootLogger);
-
-        LoggerContext context = (LoggerContext) LogManager.getContext(false);
-        context.reconfigure(builder.build());
+        mLevel = currentLevel();
+        reconfigure(pattern);
     }
 
     /**
@@ -202,6 +448,6 @@ public final class Logging {
             return; // We want to see EVERYTHING in debug mode.
         }
 
-        Configurator.setLevel(packageName, level);
+        LogLevelRegistry.getInstance().setLevel(packageName, level);
     }
 }
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.devzendo.commoncode.logging;
+
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.Core;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.appender.AbstractAppender;
+import org.apache.logging.log4j.core.config.Property;
+import org.apache.logging.log4j.core.config.plugins.Plugin;
+import org.apache.logging.log4j.core.config.plugins.PluginAttribute;
+import org.apache.logging.log4j.core.config.plugins.PluginFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * A log4j Appender that captures the most recent events it receives in a
+ * fixed-size ring, overwriting the oldest when full. Appending takes no lock,
+ * and allocates nothing but the immutable copy of the event, so it is cheap
+ * enough to leave enabled in production as a flight recorder
+ * of the last N events.
+ *
+ * Note that log4j is now a provided dependency of this project,
+ * having switched over to slf4j. This class would be of use only if you
+ * are using log4j as your top-level application logging framework.
+ *
+ * @author matt
+ *
+ */
+@Plugin(
+        name = RingCapturingAppender.PLUGIN_NAME,
+        category = Core.CATEGORY_NAME,
+        elementType = Appender.ELEMENT_TYPE,
+        printObject = true)
+public class RingCapturingAppender extends AbstractAppender {
+    public static final String PLUGIN_NAME = "RingCapturing";
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // A slot in the ring, allocated once and rewritten in place. Its stamp
+    // says which sequence number's event it holds, so that readers can tell
+    // whether it holds the event they expect, or one that has since
+    // overwritten it: 0 when never written, 2s + 1 while the event with
+    // sequence number s is being written, and 2s + 2 once it has been.
+    private static final class Slot {
+        private final AtomicLong stamp = new AtomicLong(0);
+        private volatile LogEvent event;
+    }
+
+    private final int mask;
+    private final Slot[] slots;
+    private final AtomicLong nextSequence = new AtomicLong(0);
+    private volatile long clearedSequence = 0;
+
+    @PluginFactory
+    public static RingCapturingAppender createAppender(
+            @PluginAttribute(value = "name", defaultString = "RingCapturing") final String name,
+            @PluginAttribute(value = "capacity", defaultInt = DEFAULT_CAPACITY) final int capacity) {
+        return new RingCapturingAppender(name, capacity);
+    }
+
+    /**
+     * Create a RingCapturingAppender
+     * @param name the appender's name
+     * @param capacity the number of events to keep; rounded up to a power of
+     * two
+     */
+    public RingCapturingAppender(final String name, final int capacity) {
+        super(name, null, null, true, Property.EMPTY_ARRAY);
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Capacity " + capacity + " is out of range");
+        }
+        final int size = capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+    }
+
+    @Override
+    public void append(final LogEvent event) {
+        final long sequence = nextSequence.getAndIncrement();
+        final Slot slot = slots[(int) (sequence & mask)];
+        // Claim the slot. Another writer holds it only if the ring has
+        // wrapped while it was writing; wait for it, and give way if it
+        // wrote a newer event.
+        while (true) {
+            final long stamp = slot.stamp.get();
+            if (stamp >= 2 * sequence + 2) {
+                return;
+            }
+            if ((stamp & 1) == 0 && slot.stamp.compareAndSet(stamp, 2 * sequence + 1)) {
+                break;
+            }
+            Thread.onSpinWait();
+        }
+        // LogEvent instances may be reused by Log4j 2 (garbage-free mode);
+        // take an immutable copy.
+        slot.event = event.toImmutable();
+        slot.stamp.set(2 * sequence + 2);
+    }
+
+    /**
+     * @return the number of events the ring holds
+     */
+    public int getCapacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return the total number of events appended since creation
+     */
+    public long getAppendedCount() {
+        return nextSequence.get();
+    }
+
+    /**
+     * @return the number of events that have been overwritten by newer ones
+     */
+    public long getOverwrittenCount() {
+        return Math.max(0, nextSequence.get() - getCapacity());
+    }
+
+    /**
+     * Take a snapshot of the captured events, oldest first. Events being
+     * appended concurrently with the snapshot may or may not be included.
+     * @return an unmodifiable copy of the captured events
+     */
+    public List<LogEvent> getEvents() {
+        return getEvents(event -> true);
+    }
+
+    /**
+     * Take a snapshot of the captured events that match a predicate, oldest
+     * first.
+     * @param filter the predicate that events must match
+     * @return an unmodifiable copy of the matching events
+     */
+    public List<LogEvent> getEvents(final Predicate<LogEvent> filter) {
+        final List<LogEvent> events = new ArrayList<>();
+        snapshot(clearedSequence, filter, events);
+        return Collections.unmodifiableList(events);
+    }
+
+    /**
+     * Copy the captured events from a given sequence number onwards (or from
+     * the oldest still held, if that has been overwritten) that match a
+     * predicate, oldest first.
+     * @param fromSequence the sequence number of the first event wanted
+     * @param filter the predicate that events must match
+     * @param into the list to add the events to
+     * @return the sequence number of the next event to be appended, i.e. the
+     * fromSequence to pass to get only events appended after this snapshot
+     */
+    protected long snapshot(final long fromSequence, final Predicate<LogEvent> filter, final List<LogEvent> into) {
+        final long end = nextSequence.get();
+        final long start = Math.max(Math.max(fromSequence, clearedSequence), end - getCapacity());
+        for (long sequence = start; sequence < end; sequence++) {
+            final Slot slot = slots[(int) (sequence & mask)];
+            // skip slots not yet written, being written, or already
+            // overwritten, even while being read
+            final long stamp = 2 * sequence + 2;
+            if (slot.stamp.get() != stamp) {
+                continue;
+            }
+            final LogEvent event = slot.event;
+            if (slot.stamp.get() == stamp && filter.test(event)) {
+                into.add(event);
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Forget the events captured so far.
+     */
+    public void clear() {
+        clearedSequence = nextSequence.get();
+    }
+}
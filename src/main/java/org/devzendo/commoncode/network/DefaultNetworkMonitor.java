@@ -22,10 +22,10 @@ import org.devzendo.commoncode.time.Sleeper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.util.Collections.list;
@@ -47,7 +47,7 @@ public class DefaultNetworkMonitor implements NetworkMonitor {
     private final AtomicInteger startCount = new AtomicInteger(0);
 
     private boolean firstCall = true;
-    private long firstCallTime = 0L;
+    private long firstCallNanos = 0L;
 
     private final Object interfacesLock = new Object();
     private List<NetworkInterface> currentNetworkInterfaceList = null; // guarded by lock on interfacesLock
@@ -87,9 +87,9 @@ public class DefaultNetworkMonitor implements NetworkMonitor {
                 // Log the initial interface states...
                 if (firstCall) {
                     firstCall = false;
-                    firstCallTime = sleeper.currentTimeMillis();
+                    firstCallNanos = sleeper.nanoTime();
                     currentNetworkInterfaceList.forEach((NetworkInterface ni) ->
-                            LOGGER.info(ni.getName() + ": " + state(ni)));
+                            LOGGER.info("{}: {}", ni.getName(), state(ni)));
                 }
             }
             return Collections.unmodifiableList(currentNetworkInterfaceList);
@@ -143,8 +143,8 @@ public class DefaultNetworkMonitor implements NetworkMonitor {
                     sleeper.sleep(monitorInterval);
                 } else {
                     // Have seen this wait go negative during stress testing; clamp it positive.
-                    final long initialWait = Math.max(0, monitorInterval - (sleeper.currentTimeMillis() - firstCallTime));
-                    LOGGER.debug("Waiting until monitor interval has expired before starting loop (for " + initialWait + "ms)");
+                    final long initialWait = Math.max(0, monitorInterval - TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime() - firstCallNanos));
+                    LOGGER.debug("Waiting until monitor interval has expired before starting loop (for {}ms)", initialWait);
                     sleeper.sleep(initialWait);
                 }
 
@@ -198,14 +198,15 @@ public class DefaultNetworkMonitor implements NetworkMonitor {
         intersectionNames.forEach(name -> {
             final NetworkInterface lastNi = lastInts.get(name);
             final NetworkChangeEvent.NetworkStateType lastState = state(lastNi);
-            final List<InetAddress> lastAddresses = list(lastNi.getInetAddresses());
 
             final NetworkInterface newNi = newInts.get(name);
             final NetworkChangeEvent.NetworkStateType newState = state(newNi);
-            final List<InetAddress> newAddresses = list(newNi.getInetAddresses());
 
-            LOGGER.debug("Interface '" + name + "' last state " + lastState + "; addresses " + lastAddresses +
-                    "/ new state " + newState + "; addresses " + newAddresses);
+            // The address lists are only needed for this message, so don't build them every poll.
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Interface '{}' last state {}; addresses {}/ new state {}; addresses {}", name,
+                        lastState, list(lastNi.getInetAddresses()), newState, list(newNi.getInetAddresses()));
+            }
             if (lastState != newState || !lastNi.equals(newNi)) {
                 events.add(new NetworkChangeEvent(newNi, name, NetworkChangeEvent.NetworkChangeType.INTERFACE_STATE_CHANGED, newState));
             }
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.stream.Stream;
+
+/**
+ * An index of the resources visible to a ClassLoader, so that repeated
+ * existence and URL lookups don't walk the loader's whole search path.
+ * <p>
+ * The directories and jars of the loader's search path are scanned once, on
+ * first use, into an in-memory map, if that search path is known: for the
+ * built-in application class loader, java.class.path; for a URLClassLoader
+ * whose parent is the bootstrap loader or itself has a known search path,
+ * the parent's search path followed by its URLs. The jars named by each
+ * jar's Class-Path manifest attribute are searched after it, as the loaders
+ * do. Where the same name appears more than once, the first occurrence is
+ * indexed, as the ClassLoader would find it, parent first.
+ * <p>
+ * Names not found there (e.g. those supplied by the platform), and all names
+ * if the loader's search path is not known, are looked up via the
+ * ClassLoader, and the answer, found or not, is remembered.
+ * <p>
+ * Small resources' contents may also be cached, in a cache bounded by total
+ * size from which the least recently used are evicted.
+ * @author matt
+ *
+ */
+public final class ResourceIndex {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourceIndex.class);
+
+    /**
+     * The default total size of cached resource contents.
+     */
+    public static final long DEFAULT_MAX_CACHE_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * The default size of the largest resource whose contents are cached.
+     */
+    public static final int DEFAULT_MAX_ENTRY_BYTES = 64 * 1024;
+
+    private static final Map<ClassLoader, ResourceIndex> INDICES = new WeakHashMap<>();
+
+    // The shared indices in INDICES refer to their loader weakly, or the
+    // loader (their key) would never become unreachable, and it, the index and
+    // its cache would never be collected.
+    private final ClassLoader strongClassLoader; // null for shared indices
+    private final WeakReference<ClassLoader> classLoaderRef;
+    private final long maxCacheBytes;
+    private final int maxEntryBytes;
+
+    private volatile Map<String, URL> index; // built lazily
+    private final Map<String, Optional<URL>> lookups = new ConcurrentHashMap<>();
+
+    private final Object cacheLock = new Object();
+    private final LinkedHashMap<String, byte[]> contents = new LinkedHashMap<>(16, 0.75f, true); // guarded by lock on cacheLock
+    private long cachedBytes = 0; // guarded by lock on cacheLock
+
+    /**
+     * Obtain the shared ResourceIndex of the current thread's context
+     * ClassLoader, with the default cache sizes. It does not keep the
+     * ClassLoader reachable; when that is collected, so is the index.
+     * @return the ResourceIndex
+     */
+    public static ResourceIndex forContextClassLoader() {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        synchronized (INDICES) {
+            return INDICES.computeIfAbsent(classLoader,
+                    cl -> new ResourceIndex(cl, false, DEFAULT_MAX_CACHE_BYTES, DEFAULT_MAX_ENTRY_BYTES));
+        }
+    }
+
+    /**
+     * Create a ResourceIndex
+     * @param classLoader the ClassLoader whose resources are indexed
+     * @param maxCacheBytes the total size of resource contents to cache; 0
+     * disables the cache
+     * @param maxEntryBytes the size of the largest resource to cache
+     */
+    public ResourceIndex(final ClassLoader classLoader, final long maxCacheBytes, final int maxEntryBytes) {
+        this(classLoader, true, maxCacheBytes, maxEntryBytes);
+    }
+
+    private ResourceIndex(final ClassLoader classLoader, final boolean strong, final long maxCacheBytes, final int maxEntryBytes) {
+        this.strongClassLoader = strong ? classLoader : null;
+        this.classLoaderRef = new WeakReference<>(classLoader);
+        this.maxCacheBytes = maxCacheBytes;
+        this.maxEntryBytes = maxEntryBytes;
+    }
+
+    /**
+     * Does the named resource exist?
+     * @param resourceName the name of the resource, from the classpath
+     * @return true iff it exists.
+     */
+    public boolean resourceExists(final String resourceName) {
+        return getResourceURL(resourceName) != null;
+    }
+
+    /**
+     * Obtain the URL for the named resource
+     * @param resourceName the name of the resource, from the classpath
+     * @return the URL, or null if it does not exist
+     */
+    public URL getResourceURL(final String resourceName) {
+        final URL indexed = getIndex().get(resourceName);
+        if (indexed != null) {
+            return indexed;
+        }
+        final ClassLoader classLoader = getClassLoader();
+        if (classLoader == null) {
+            return null; // the shared index of a collected loader, unreachable by new callers
+        }
+        return lookups.computeIfAbsent(resourceName,
+                name -> Optional.ofNullable(classLoader.getResource(name))).orElse(null);
+    }
+
+    /**
+     * @return the number of resources found when scanning the classpath; 0
+     * if the loader's search path is not known, so was not scanned
+     */
+    public int size() {
+        return getIndex().size();
+    }
+
+    /**
+     * Obtain the contents of the named resource. Resources no larger than the
+     * maximum entry size are cached.
+     * @param resourceName the name of the resource, from the classpath
+     * @return a read-only buffer of its contents, or null if it does not
+     * exist
+     * @throws IOException if it cannot be read
+     */
+    public ByteBuffer getResourceContents(final String resourceName) throws IOException {
+        synchronized (cacheLock) {
+            final byte[] cached = contents.get(resourceName);
+            if (cached != null) {
+                return ByteBuffer.wrap(cached).asReadOnlyBuffer();
+            }
+        }
+        final URL url = getResourceURL(resourceName);
+        if (url == null) {
+            return null;
+        }
+        final byte[] bytes = ResourceLoader.readBytes(url);
+        if (bytes.length <= maxEntryBytes && bytes.length <= maxCacheBytes) {
+            synchronized (cacheLock) {
+                final byte[] previous = contents.put(resourceName, bytes);
+                cachedBytes += bytes.length - (previous == null ? 0 : previous.length);
+                final Iterator<byte[]> eldest = contents.values().iterator();
+                while (cachedBytes > maxCacheBytes && eldest.hasNext()) {
+                    cachedBytes -= eldest.next().length;
+                    eldest.remove();
+                }
+            }
+        }
+        return ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+    }
+
+    /**
+     * @return the total size of the resource contents currently cached
+     */
+    public long getCachedBytes() {
+        synchronized (cacheLock) {
+            return cachedBytes;
+        }
+    }
+
+    /**
+     * Discard the index, lookups and cached contents, e.g. if the classpath
+     * contents have changed. The classpath will be rescanned on next use.
+     */
+    public void clear() {
+        index = null;
+        lookups.clear();
+        synchronized (cacheLock) {
+            contents.clear();
+            cachedBytes = 0;
+        }
+    }
+
+    private ClassLoader getClassLoader() {
+        return strongClassLoader != null ? strongClassLoader : classLoaderRef.get();
+    }
+
+    private Map<String, URL> getIndex() {
+        Map<String, URL> i = index;
+        if (i == null) {
+            synchronized (this) {
+                i = index;
+                if (i == null) {
+                    i = scan();
+                    index = i;
+                }
+            }
+        }
+        return i;
+    }
+
+    private Map<String, URL> scan() {
+        final List<File> searchPath = searchPath(getClassLoader());
+        if (searchPath == null) {
+            LOGGER.debug("Search path of {} is not known; not indexing it", getClassLoader());
+            return Collections.emptyMap();
+        }
+        final long start = System.currentTimeMillis();
+        final Map<String, URL> map = new HashMap<>();
+        final Deque<File> pending = new ArrayDeque<>(searchPath);
+        final Set<File> scanned = new HashSet<>();
+        while (!pending.isEmpty()) {
+            final File root = pending.removeFirst();
+            if (!scanned.add(root.getAbsoluteFile())) {
+                continue;
+            }
+            try {
+                if (root.isDirectory()) {
+                    scanDirectory(map, root.toPath());
+                } else if (root.isFile()) {
+                    // the jars it names are searched next
+                    final List<File> classPath = scanJar(map, root);
+                    for (int i = classPath.size() - 1; i >= 0; i--) {
+                        pending.addFirst(classPath.get(i));
+                    }
+                }
+            } catch (final IOException e) {
+                LOGGER.warn("Could not index classpath entry " + root + ": " + e.getMessage());
+            }
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Indexed {} resources in {}ms", map.size(), System.currentTimeMillis() - start);
+        }
+        return map;
+    }
+
+    // The directories and jars a loader searches, in order, parents' first;
+    // or null if they are not known, so an index could disagree with it.
+    private static List<File> searchPath(final ClassLoader classLoader) {
+        if (classLoader == null) {
+            return null; // collected
+        }
+        if (classLoader == ClassLoader.getSystemClassLoader() && System.getProperty("java.system.class.loader") == null) {
+            final List<File> roots = new ArrayList<>();
+            final String classPath = System.getProperty("java.class.path", "");
+            for (final String element : classPath.split(File.pathSeparator)) {
+                if (element.length() != 0) {
+                    roots.add(new File(element));
+                }
+            }
+            return roots;
+        }
+        if (!(classLoader instanceof URLClassLoader)) {
+            return null;
+        }
+        final ClassLoader parent = classLoader.getParent();
+        final List<File> roots = parent == null ? new ArrayList<>() : searchPath(parent);
+        if (roots == null) {
+            return null;
+        }
+        for (final URL url : ((URLClassLoader) classLoader).getURLs()) {
+            final File root = toFile(url);
+            if (root == null) {
+                return null; // e.g. a remote jar, which can't be scanned
+            }
+            roots.add(root);
+        }
+        return roots;
+    }
+
+    private static File toFile(final URL url) {
+        if (!"file".equals(url.getProtocol())) {
+            return null;
+        }
+        try {
+            return new File(url.toURI());
+        } catch (final Exception e) {
+            LOGGER.warn("Cannot index classpath URL " + url + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void scanDirectory(final Map<String, URL> map, final Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.filter(Files::isRegularFile).forEach(path -> {
+                final String name = root.relativize(path).toString().replace(File.separatorChar, '/');
+                if (!map.containsKey(name)) {
+                    try {
+                        map.put(name, path.toUri().toURL());
+                    } catch (final MalformedURLException e) {
+                        LOGGER.warn("Cannot index " + path + ": " + e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    // Returns the jars and directories named by the jar's Class-Path.
+    private static List<File> scanJar(final Map<String, URL> map, final File jar) throws IOException {
+        final URL base = jar.toURI().toURL();
+        final String jarURL = "jar:" + base + "!/";
+        try (JarFile jarFile = new JarFile(jar)) {
+            final Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                final JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && !map.containsKey(entry.getName())) {
+                    map.put(entry.getName(), new URL(jarURL + entry.getName()));
+                }
+            }
+            final List<File> classPath = new ArrayList<>();
+            final Manifest manifest = jarFile.getManifest();
+            final String value = manifest == null ? null : manifest.getMainAttributes().getValue(Attributes.Name.CLASS_PATH);
+            if (value != null) {
+                for (final String element : value.trim().split("\\s+")) {
+                    if (element.length() != 0) {
+                        final File root = toFile(new URL(base, element));
+                        if (root != null) {
+                            classPath.add(root);
+                        }
+                    }
+                }
+            }
+            return classPath;
+        }
+    }
+}
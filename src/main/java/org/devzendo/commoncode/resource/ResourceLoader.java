@@ -20,9 +20,23 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.awt.Image;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Properties;
 
 import javax.imageio.ImageIO;
@@ -30,6 +44,9 @@ import javax.swing.ImageIcon;
 
 /**
  * Toolkit for helping with loading resources.
+ * <p>
+ * Each call here asks the context ClassLoader afresh; code that probes many
+ * resources should use a ResourceIndex instead.
  * 
  * @author matt
  *
@@ -44,24 +61,51 @@ public final class ResourceLoader {
     }
 
     /**
-     * Read a resource into a StringBuilder
+     * Read a resource into a StringBuilder, decoding it with the platform's
+     * default charset
      * @param store the StringBuilder to be populated with the resource
      * @param resourceName the name of the resource, from the classpath 
      */
     public static void readResource(final StringBuilder store, final String resourceName) {
+        readResource(store, resourceName, Charset.defaultCharset());
+    }
+
+    /**
+     * Read a resource into a StringBuilder, decoding it with a given charset.
+     * Malformed or unmappable input is replaced with the charset's
+     * replacement character(s).
+     * @param store the StringBuilder to be populated with the resource
+     * @param resourceName the name of the resource, from the classpath
+     * @param charset the charset the resource is encoded in
+     */
+    public static void readResource(final StringBuilder store, final String resourceName, final Charset charset) {
         final InputStream resourceAsStream = getResourceInputStream(resourceName);
         if (resourceAsStream == null) {
             LOGGER.warn("Could not open resource '" + resourceName + "'");
             return;
         }
         final int bufsize = 16384;
-        final byte[] buf = new byte[bufsize];
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final ByteBuffer in = ByteBuffer.allocate(bufsize);
+        final CharBuffer out = CharBuffer.allocate(bufsize);
         int nread;
         try {
-            while ((nread = resourceAsStream.read(buf, 0, bufsize)) != -1) {
-                final String block = new String(buf, 0, nread);
-                store.append(block);
+            // Bytes of a character split across reads are kept in 'in' until
+            // the rest of them arrive.
+            while ((nread = resourceAsStream.read(in.array(), in.position(), in.remaining())) != -1) {
+                in.position(in.position() + nread);
+                in.flip();
+                decode(decoder, in, out, store, false);
+                in.compact();
+            }
+            in.flip();
+            decode(decoder, in, out, store, true);
+            while (decoder.flush(out).isOverflow()) {
+                drain(out, store);
             }
+            drain(out, store);
         } catch (final IOException e) {
             LOGGER.warn("Could not read resource '" + resourceName + "': " + e.getMessage());
         } finally {
@@ -71,9 +115,24 @@ public final class ResourceLoader {
             }
         }
     }
-    
+
+    private static void decode(final CharsetDecoder decoder, final ByteBuffer in, final CharBuffer out,
+                               final StringBuilder store, final boolean endOfInput) {
+        CoderResult result;
+        do {
+            result = decoder.decode(in, out, endOfInput);
+            drain(out, store);
+        } while (result.isOverflow());
+    }
+
+    private static void drain(final CharBuffer out, final StringBuilder store) {
+        store.append(out.array(), 0, out.position());
+        out.clear();
+    }
+
     /**
-     * Read a resource into a String
+     * Read a resource into a String, decoding it with the platform's default
+     * charset
      * @param resourceName the name of the resource, from the classpath
      * @return the resource contents
      */
@@ -83,6 +142,129 @@ public final class ResourceLoader {
         return sb.toString();
     }
 
+    /**
+     * Read a resource into a String, decoding it with a given charset
+     * @param resourceName the name of the resource, from the classpath
+     * @param charset the charset the resource is encoded in
+     * @return the resource contents
+     */
+    public static String readResource(final String resourceName, final Charset charset) {
+        final StringBuilder sb = new StringBuilder();
+        readResource(sb, resourceName, charset);
+        return sb.toString();
+    }
+
+    /**
+     * Read a resource's bytes. Where the resource's length is known (as it is
+     * for files and jar entries), it is read into a single allocation of
+     * that size.
+     * @param resourceName the name of the resource, from the classpath
+     * @return the resource contents, or null if it could not be found or read
+     */
+    public static byte[] readResourceBytes(final String resourceName) {
+        final URL url = getResourceURL(resourceName);
+        if (url == null) {
+            LOGGER.warn("Could not open resource '" + resourceName + "'");
+            return null;
+        }
+        try {
+            return readBytes(url);
+        } catch (final IOException e) {
+            LOGGER.warn("Could not read resource '" + resourceName + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read a resource's bytes into a ByteBuffer, as readResourceBytes does.
+     * @param resourceName the name of the resource, from the classpath
+     * @return a buffer wrapping the resource contents, or null if it could not
+     * be found or read
+     */
+    public static ByteBuffer readResourceBuffer(final String resourceName) {
+        final byte[] bytes = readResourceBytes(resourceName);
+        return bytes == null ? null : ByteBuffer.wrap(bytes);
+    }
+
+    /**
+     * Obtain a resource's contents without copying them onto the heap, where
+     * possible. If the resource is a plain file, or an uncompressed (STORED)
+     * entry in a jar file, a read-only MappedByteBuffer of it is returned, so
+     * large resources are shared via the page cache between all processes
+     * using them. Otherwise, the resource is read in a single allocation, as
+     * with readResourceBytes, and a read-only heap buffer is returned.
+     * @param resourceName the name of the resource, from the classpath
+     * @return a read-only buffer of the resource's contents, or null if it
+     * could not be found or read
+     */
+    public static ByteBuffer mapResource(final String resourceName) {
+        final URL url = getResourceURL(resourceName);
+        if (url == null) {
+            LOGGER.warn("Could not open resource '" + resourceName + "'");
+            return null;
+        }
+        try {
+            final MappedByteBuffer mapped = map(url);
+            if (mapped != null) {
+                return mapped;
+            }
+            return ByteBuffer.wrap(readBytes(url)).asReadOnlyBuffer();
+        } catch (final IOException e) {
+            LOGGER.warn("Could not read resource '" + resourceName + "': " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static MappedByteBuffer map(final URL url) throws IOException {
+        try {
+            if ("file".equals(url.getProtocol())) {
+                try (FileChannel channel = FileChannel.open(new File(url.toURI()).toPath(), StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            if ("jar".equals(url.getProtocol())) {
+                final JarURLConnection connection = (JarURLConnection) url.openConnection();
+                final URL jarFileURL = connection.getJarFileURL();
+                if (!"file".equals(jarFileURL.getProtocol()) || connection.getEntryName() == null) {
+                    return null;
+                }
+                try (FileChannel channel = FileChannel.open(new File(jarFileURL.toURI()).toPath(), StandardOpenOption.READ)) {
+                    final long[] location = StoredJarEntryLocator.locate(channel, connection.getEntryName());
+                    if (location == null) {
+                        return null;
+                    }
+                    return channel.map(FileChannel.MapMode.READ_ONLY, location[0], location[1]);
+                }
+            }
+        } catch (final URISyntaxException | IllegalArgumentException e) {
+            LOGGER.debug("Cannot map {}: {}", url, e.getMessage());
+        }
+        return null;
+    }
+
+    static byte[] readBytes(final URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        final long length = connection.getContentLengthLong();
+        try (InputStream inputStream = connection.getInputStream()) {
+            if (length < 0 || length > Integer.MAX_VALUE - 8) {
+                return inputStream.readAllBytes();
+            }
+            final byte[] bytes = new byte[(int) length];
+            final int nread = inputStream.readNBytes(bytes, 0, bytes.length);
+            if (nread < bytes.length) {
+                return Arrays.copyOf(bytes, nread);
+            }
+            final byte[] more = inputStream.readAllBytes();
+            if (more.length == 0) {
+                return bytes;
+            }
+            // longer than it claimed to be
+            final byte[] all = Arrays.copyOf(bytes, bytes.length + more.length);
+            System.arraycopy(more, 0, all, bytes.length, more.length);
+            return all;
+        }
+    }
+
     /**
      * Obtain the InputStream for the named resource
      * @param resourceName the name of the resource, from the classpath
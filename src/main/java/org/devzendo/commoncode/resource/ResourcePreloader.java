@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.resource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Image;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+
+/**
+ * Loads and decodes many resources concurrently, e.g. at application
+ * startup, so that their I/O and decoding overlap, rather than calling
+ * ResourceLoader for each in turn.
+ * <p>
+ * The loading is done on a given Executor: the common ForkJoinPool by
+ * default, or e.g. a virtual-thread-per-task executor where available.
+ * ResourceLoader resolves names via the thread context ClassLoader, so each
+ * load runs with the context ClassLoader of the thread that called preload.
+ * @author matt
+ *
+ */
+public final class ResourcePreloader {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResourcePreloader.class);
+
+    private final Executor executor;
+
+    /**
+     * A resource that has been loaded, and how long that took.
+     * @param <T> the type of the loaded resource
+     */
+    public static final class LoadedResource<T> {
+        private final String name;
+        private final T value;
+        private final long loadNanos;
+
+        LoadedResource(final String name, final T value, final long loadNanos) {
+            this.name = name;
+            this.value = value;
+            this.loadNanos = loadNanos;
+        }
+
+        /**
+         * @return the name of the resource
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the loaded resource, or null if it could not be found or
+         * read (as ResourceLoader would return)
+         */
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return how long the resource took to load, in nanoseconds
+         */
+        public long getLoadNanos() {
+            return loadNanos;
+        }
+
+        @Override
+        public String toString() {
+            return name + " loaded in " + (loadNanos / 1000000L) + "ms";
+        }
+    }
+
+    /**
+     * Create a ResourcePreloader that loads on the common ForkJoinPool.
+     */
+    public ResourcePreloader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create a ResourcePreloader that loads on the given Executor.
+     * @param executor the Executor to load on
+     */
+    public ResourcePreloader(final Executor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Start loading resources concurrently with a given loading function.
+     * @param resourceNames the names of the resources, from the classpath
+     * @param loader the function that loads and decodes a named resource
+     * @param <T> the type of the loaded resources
+     * @return a future for each resource, in the order named
+     */
+    public <T> Map<String, CompletableFuture<LoadedResource<T>>> preload(final List<String> resourceNames, final Function<String, T> loader) {
+        final Map<String, CompletableFuture<LoadedResource<T>>> futures = new LinkedHashMap<>();
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        for (final String resourceName : resourceNames) {
+            futures.computeIfAbsent(resourceName, name -> CompletableFuture.supplyAsync(() -> {
+                final long start = System.nanoTime();
+                final T value = loadWithContextClassLoader(contextClassLoader, loader, name);
+                final LoadedResource<T> loaded = new LoadedResource<>(name, value, System.nanoTime() - start);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Preloaded {}", loaded);
+                }
+                return loaded;
+            }, executor));
+        }
+        return futures;
+    }
+
+    private static <T> T loadWithContextClassLoader(final ClassLoader contextClassLoader, final Function<String, T> loader, final String name) {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        thread.setContextClassLoader(contextClassLoader);
+        try {
+            return loader.apply(name);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+
+    /**
+     * Start loading text resources concurrently.
+     * @param resourceNames the names of the resources, from the classpath
+     * @param charset the charset the resources are encoded in
+     * @return a future for each resource, in the order named
+     */
+    public Map<String, CompletableFuture<LoadedResource<String>>> preloadText(final List<String> resourceNames, final Charset charset) {
+        return preload(resourceNames, name -> ResourceLoader.resourceExists(name) ? ResourceLoader.readResource(name, charset) : null);
+    }
+
+    /**
+     * Start loading properties resources concurrently.
+     * @param resourceNames the names of the resources, from the classpath
+     * @return a future for each resource, in the order named
+     */
+    public Map<String, CompletableFuture<LoadedResource<Properties>>> preloadProperties(final List<String> resourceNames) {
+        return preload(resourceNames, ResourceLoader::readPropertiesResource);
+    }
+
+    /**
+     * Start loading and decoding image resources concurrently.
+     * @param resourceNames the names of the resources, from the classpath
+     * @return a future for each resource, in the order named
+     */
+    public Map<String, CompletableFuture<LoadedResource<Image>>> preloadImages(final List<String> resourceNames) {
+        return preload(resourceNames, ResourceLoader::readImageResource);
+    }
+
+    /**
+     * Start loading resources' bytes concurrently.
+     * @param resourceNames the names of the resources, from the classpath
+     * @return a future for each resource, in the order named
+     */
+    public Map<String, CompletableFuture<LoadedResource<byte[]>>> preloadBytes(final List<String> resourceNames) {
+        return preload(resourceNames, ResourceLoader::readResourceBytes);
+    }
+
+    /**
+     * Wait for preloading to finish, and collect the loaded resources.
+     * @param futures the futures returned by one of the preload methods
+     * @param <T> the type of the loaded resources
+     * @return the loaded resources, in the order named
+     */
+    public static <T> Map<String, LoadedResource<T>> awaitAll(final Map<String, CompletableFuture<LoadedResource<T>>> futures) {
+        final Map<String, LoadedResource<T>> loaded = new LinkedHashMap<>();
+        futures.forEach((name, future) -> loaded.put(name, future.join()));
+        return loaded;
+    }
+}
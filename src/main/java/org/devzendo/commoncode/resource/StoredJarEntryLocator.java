@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.resource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Finds where the data of an uncompressed (STORED) entry lies within a jar
+ * (zip) file, by reading its central directory, so that the data can be
+ * mapped directly. java.util.zip does not expose this.
+ * <p>
+ * Zip64 archives are not handled.
+ * @author matt
+ *
+ */
+final class StoredJarEntryLocator {
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_HEADER = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int STORED = 0;
+
+    private StoredJarEntryLocator() {
+        // no instances
+    }
+
+    /**
+     * Locate a STORED entry's data.
+     * @param channel the open jar file
+     * @param entryName the name of the entry
+     * @return {offset, length} of the entry's data within the file, or null
+     * if the entry is absent, compressed, or the file can't be understood
+     * @throws IOException on read failure
+     */
+    static long[] locate(final FileChannel channel, final String entryName) throws IOException {
+        final long fileSize = channel.size();
+        if (fileSize < END_OF_CENTRAL_DIRECTORY_SIZE) {
+            return null;
+        }
+        final long tailStart = Math.max(0, fileSize - END_OF_CENTRAL_DIRECTORY_SIZE - MAX_COMMENT_SIZE);
+        final ByteBuffer tail = read(channel, tailStart, (int) (fileSize - tailStart));
+        int eocd = -1;
+        for (int p = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE; p >= 0; p--) {
+            if (tail.getInt(p) == END_OF_CENTRAL_DIRECTORY) {
+                eocd = p;
+                break;
+            }
+        }
+        if (eocd == -1) {
+            return null;
+        }
+        final int entries = tail.getShort(eocd + 10) & 0xffff;
+        final long directorySize = tail.getInt(eocd + 12) & 0xffffffffL;
+        final long directoryOffset = tail.getInt(eocd + 16) & 0xffffffffL;
+        if (entries == 0xffff || directoryOffset == 0xffffffffL || directoryOffset + directorySize > fileSize) {
+            return null; // zip64, or corrupt
+        }
+
+        final byte[] wanted = entryName.getBytes(StandardCharsets.UTF_8);
+        final ByteBuffer directory = read(channel, directoryOffset, (int) directorySize);
+        int p = 0;
+        for (int i = 0; i < entries && p + 46 <= directory.limit(); i++) {
+            if (directory.getInt(p) != CENTRAL_DIRECTORY_HEADER) {
+                return null;
+            }
+            final int method = directory.getShort(p + 10) & 0xffff;
+            final long compressedSize = directory.getInt(p + 20) & 0xffffffffL;
+            final long size = directory.getInt(p + 24) & 0xffffffffL;
+            final int nameLength = directory.getShort(p + 28) & 0xffff;
+            final int extraLength = directory.getShort(p + 30) & 0xffff;
+            final int commentLength = directory.getShort(p + 32) & 0xffff;
+            final long localHeaderOffset = directory.getInt(p + 42) & 0xffffffffL;
+            if (nameLength == wanted.length && p + 46 + nameLength <= directory.limit()) {
+                final byte[] name = new byte[nameLength];
+                directory.position(p + 46);
+                directory.get(name);
+                if (Arrays.equals(name, wanted)) {
+                    if (method != STORED || compressedSize != size || size == 0xffffffffL) {
+                        return null;
+                    }
+                    return new long[] {dataOffset(channel, localHeaderOffset), size};
+                }
+            }
+            p += 46 + nameLength + extraLength + commentLength;
+        }
+        return null;
+    }
+
+    private static long dataOffset(final FileChannel channel, final long localHeaderOffset) throws IOException {
+        final ByteBuffer header = read(channel, localHeaderOffset, 30);
+        if (header.limit() < 30 || header.getInt(0) != LOCAL_FILE_HEADER) {
+            throw new IOException("No local file header at offset " + localHeaderOffset);
+        }
+        final int nameLength = header.getShort(26) & 0xffff;
+        final int extraLength = header.getShort(28) & 0xffff;
+        return localHeaderOffset + 30 + nameLength + extraLength;
+    }
+
+    private static ByteBuffer read(final FileChannel channel, final long position, final int length) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        long at = position;
+        while (buffer.hasRemaining()) {
+            final int nread = channel.read(buffer, at);
+            if (nread == -1) {
+                break;
+            }
+            at += nread;
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.string;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary comparison routines, rendering their results in the HexDump
+ * hex/ascii dump format.
+ * @author matt
+ *
+ */
+public final class HexDiff {
+    private HexDiff() {
+        // not instantiatable
+    }
+
+    /**
+     * Prefix of a dump line that is the same in both buffers.
+     */
+    public static final String CONTEXT_PREFIX = "  ";
+
+    /**
+     * Prefix of a dump line from the first buffer that differs.
+     */
+    public static final String FIRST_PREFIX = "< ";
+
+    /**
+     * Prefix of a dump line from the second buffer that differs.
+     */
+    public static final String SECOND_PREFIX = "> ";
+
+    /**
+     * Separator between non-adjacent groups of differing lines.
+     */
+    public static final String HUNK_SEPARATOR = "--";
+
+    /**
+     * Find the first byte at which the remaining contents of two buffers
+     * differ. The comparison is done a word at a time, and neither buffer's
+     * position is affected.
+     * @param a the first buffer
+     * @param b the second buffer
+     * @return the offset, relative to each buffer's position, of the first
+     * mismatch; the length of the shorter buffer if it is a prefix of the
+     * longer; or -1 if they are identical.
+     */
+    public static int mismatch(final ByteBuffer a, final ByteBuffer b) {
+        return a.mismatch(b);
+    }
+
+    /**
+     * Compare the remaining contents of two buffers, 16 bytes (one dump
+     * line) at a time, and produce a dump of only the lines that differ.
+     * Each differing line is shown from the first buffer prefixed by
+     * FIRST_PREFIX, then from the second prefixed by SECOND_PREFIX; up to
+     * contextLines identical lines either side are shown prefixed by
+     * CONTEXT_PREFIX, and groups of lines that are not adjacent are separated
+     * by HUNK_SEPARATOR. Offsets are relative to each buffer's position,
+     * which is not affected.
+     * @param a the first buffer
+     * @param b the second buffer
+     * @param contextLines the number of identical lines to show around each
+     * difference
+     * @return the lines of the diff, empty if the buffers are identical
+     */
+    public static String[] diff(final ByteBuffer a, final ByteBuffer b, final int contextLines) {
+        final ByteBuffer first = a.duplicate();
+        final ByteBuffer second = b.duplicate();
+        final int firstStart = first.position();
+        final int secondStart = second.position();
+        final int firstLength = first.remaining();
+        final int secondLength = second.remaining();
+
+        // Skip over identical stretches with mismatch, noting each line that differs.
+        final List<Integer> differingLines = new ArrayList<>();
+        int from = 0;
+        while (true) {
+            first.position(firstStart + Math.min(from, firstLength));
+            second.position(secondStart + Math.min(from, secondLength));
+            final int m = first.mismatch(second);
+            if (m == -1) {
+                break;
+            }
+            final int line = (from + m) >>> 4;
+            differingLines.add(line);
+            from = (line + 1) << 4;
+        }
+
+        final int lineCount = (Math.max(firstLength, secondLength) + 15) >>> 4;
+        final List<String> out = new ArrayList<>();
+        int shownUpTo = -1; // the last line emitted
+        for (int i = 0; i < differingLines.size(); i++) {
+            final int line = differingLines.get(i);
+            final int contextStart = Math.max(shownUpTo + 1, line - contextLines);
+            if (shownUpTo != -1 && contextStart > shownUpTo + 1) {
+                out.add(HUNK_SEPARATOR);
+            }
+            for (int c = contextStart; c < line; c++) {
+                addLine(out, CONTEXT_PREFIX, a, c, firstLength);
+            }
+            addLine(out, FIRST_PREFIX, a, line, firstLength);
+            addLine(out, SECOND_PREFIX, b, line, secondLength);
+            shownUpTo = line;
+
+            final int nextDiffering = i + 1 < differingLines.size() ? differingLines.get(i + 1) : lineCount;
+            final int contextEnd = Math.min(line + contextLines, nextDiffering - 1);
+            for (int c = line + 1; c <= contextEnd; c++) {
+                addLine(out, CONTEXT_PREFIX, a, c, firstLength);
+                shownUpTo = c;
+            }
+        }
+        return out.toArray(new String[0]);
+    }
+
+    /**
+     * Compare two files, as diff(ByteBuffer, ByteBuffer, int) does. The
+     * files are memory-mapped rather than read onto the heap.
+     * @param a the first file
+     * @param b the second file
+     * @param contextLines the number of identical lines to show around each
+     * difference
+     * @return the lines of the diff, empty if the files are identical
+     * @throws IOException if either file cannot be read
+     */
+    public static String[] diff(final Path a, final Path b, final int contextLines) throws IOException {
+        try (FileChannel ca = FileChannel.open(a, StandardOpenOption.READ);
+             FileChannel cb = FileChannel.open(b, StandardOpenOption.READ)) {
+            return diff(ca.map(FileChannel.MapMode.READ_ONLY, 0, ca.size()),
+                    cb.map(FileChannel.MapMode.READ_ONLY, 0, cb.size()), contextLines);
+        }
+    }
+
+    private static void addLine(final List<String> out, final String prefix, final ByteBuffer buffer, final int line, final int length) {
+        final int offset = line << 4;
+        if (offset >= length) {
+            return; // this buffer ends before this line
+        }
+        final StringBuilder sb = new StringBuilder(80);
+        sb.append(prefix);
+        HexDump.appendHexDumpLine(sb, buffer, buffer.position() + offset, Math.min(16, length - offset), offset);
+        out.add(sb.toString());
+    }
+}
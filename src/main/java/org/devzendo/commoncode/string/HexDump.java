@@ -17,9 +17,20 @@
 
 package org.devzendo.commoncode.string;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 /**
  * Hexadecimal routines
@@ -32,6 +43,25 @@ public final class HexDump {
     }
 
     private static String hexDigits = "0123456789ABCDEF";
+
+    // Lookup tables for the bulk conversions: HEX_PAIRS holds the two hex
+    // characters of every byte value, NIBBLE_VALUES the value of every ASCII
+    // hex character (or -1 if it isn't one).
+    private static final char[] HEX_PAIRS = new char[512];
+    private static final byte[] NIBBLE_VALUES = new byte[128];
+    static {
+        for (int i = 0; i < 256; i++) {
+            HEX_PAIRS[i << 1] = hexDigits.charAt(i >> 4);
+            HEX_PAIRS[(i << 1) + 1] = hexDigits.charAt(i & 0x0f);
+        }
+        for (int i = 0; i < NIBBLE_VALUES.length; i++) {
+            NIBBLE_VALUES[i] = -1;
+        }
+        for (int i = 0; i < 16; i++) {
+            NIBBLE_VALUES[hexDigits.charAt(i)] = (byte) i;
+            NIBBLE_VALUES[Character.toLowerCase(hexDigits.charAt(i))] = (byte) i;
+        }
+    }
     
     /**
      * Convert a byte into its Hex String
@@ -50,11 +80,14 @@ public final class HexDump {
      * @return "7FC9"
      */
     public static String bytes2hex(final byte[] bs) {
-        final StringBuilder sb = new StringBuilder();
+        final char[] buf = new char[bs.length << 1];
+        int j = 0;
         for (int i = 0; i < bs.length; i++) {
-            appendHexByte(sb, bs[i]);
+            final int pair = (bs[i] & 0xff) << 1;
+            buf[j++] = HEX_PAIRS[pair];
+            buf[j++] = HEX_PAIRS[pair + 1];
         }
-        return sb.toString();
+        return new String(buf);
     }
     
     private static void appendHexByte(final StringBuilder sb, final byte b) {
@@ -192,6 +225,214 @@ public final class HexDump {
         return ret;
     }
     
+    /**
+     * The number of bytes formatted by each task of a parallel hex dump; a
+     * multiple of 16 so that every chunk starts on a dump line boundary.
+     */
+    private static final int PARALLEL_CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Obtain the lines of a hex/ascii dump of the remaining bytes of a
+     * ByteBuffer as a Stream, without copying the buffer or affecting its
+     * position. Offsets are relative to the buffer's position, as with
+     * hexDump(ByteBuffer).
+     * <p>
+     * Each line is formatted independently, so the stream may be made
+     * parallel(); use forEachOrdered or collect to keep the lines in order.
+     * The buffer must not be modified while the stream is being consumed.
+     * @param buffer the buffer, can be null
+     * @return the lines of hex/ascii dump
+     */
+    public static Stream<String> hexDumpLines(final ByteBuffer buffer) {
+        if (buffer == null) {
+            return Stream.empty();
+        }
+
+        final ByteBuffer data = buffer.duplicate();
+        final int start = data.position();
+        final int len = data.remaining();
+        final int rows = (len + 15) >>> 4;
+        return IntStream.range(0, rows).mapToObj(row -> {
+            final StringBuilder line = new StringBuilder(78);
+            final int offset = row << 4;
+            appendHexDumpLine(line, data, start + offset, Math.min(16, len - offset), offset);
+            return line.toString();
+        });
+    }
+
+    /**
+     * Write a hex/ascii dump of the remaining bytes of a ByteBuffer to an
+     * Appendable, formatting it in parallel on the common ForkJoinPool.
+     * @param buffer the buffer, can be null
+     * @param out where the lines are written, each terminated by a newline
+     * @throws IOException if the output cannot be written
+     * @see #hexDump(ByteBuffer, Appendable, ForkJoinPool)
+     */
+    public static void hexDump(final ByteBuffer buffer, final Appendable out) throws IOException {
+        hexDump(buffer, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Write a hex/ascii dump of the remaining bytes of a ByteBuffer (e.g. a
+     * large MappedByteBuffer) to an Appendable. The buffer is split into
+     * 16-byte-aligned chunks which are formatted concurrently on the given
+     * pool, and written out in order as they complete; only a few chunks per
+     * pool thread are held in memory at once. The position of the buffer is
+     * not affected, and offsets are relative to it.
+     * @param buffer the buffer, can be null
+     * @param out where the lines are written, each terminated by a newline
+     * @param pool the pool on which the chunks are formatted
+     * @throws IOException if the output cannot be written
+     */
+    public static void hexDump(final ByteBuffer buffer, final Appendable out, final ForkJoinPool pool) throws IOException {
+        if (buffer == null) {
+            return;
+        }
+
+        final ByteBuffer data = buffer.duplicate();
+        final int start = data.position();
+        final int len = data.remaining();
+        final int window = Math.max(2, pool.getParallelism() * 2);
+        final ArrayDeque<ForkJoinTask<CharSequence>> pending = new ArrayDeque<>();
+        int next = 0;
+        try {
+            while (next < len || !pending.isEmpty()) {
+                while (next < len && pending.size() < window) {
+                    final int chunkOffset = next;
+                    final int chunkLength = Math.min(PARALLEL_CHUNK_SIZE, len - next);
+                    pending.add(pool.submit(() -> formatChunk(data, start, chunkOffset, chunkLength)));
+                    next += chunkLength;
+                }
+                out.append(pending.remove().join());
+            }
+        } finally {
+            for (final ForkJoinTask<CharSequence> task : pending) {
+                task.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Write a hex/ascii dump of the remaining bytes of a ByteBuffer to a file,
+     * formatting it in parallel on the common ForkJoinPool.
+     * @param buffer the buffer, can be null
+     * @param file the file to create or overwrite
+     * @throws IOException if the file cannot be written
+     */
+    public static void hexDump(final ByteBuffer buffer, final Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            hexDump(buffer, writer);
+        }
+    }
+
+    private static CharSequence formatChunk(final ByteBuffer data, final int start, final int chunkOffset, final int chunkLength) {
+        final StringBuilder sb = new StringBuilder(((chunkLength + 15) >>> 4) * 79);
+        for (int x = 0; x < chunkLength; x += 16) {
+            final int offset = chunkOffset + x;
+            appendHexDumpLine(sb, data, start + offset, Math.min(16, chunkLength - x), offset);
+            sb.append('\n');
+        }
+        return sb;
+    }
+
+    // Appends a line in the same format as hexDump(byte[], int, int), reading
+    // with absolute gets so that the buffer can be shared between threads.
+    static void appendHexDumpLine(final StringBuilder sb, final ByteBuffer data, final int index, final int count, final int offset) {
+        final int base = sb.length();
+        sb.append(int2hex(offset)).append(" | ");
+        for (int x = 0; x < 16; x++) {
+            if (x < count) {
+                final int pair = (data.get(index + x) & 0xff) << 1;
+                sb.append(HEX_PAIRS[pair]).append(HEX_PAIRS[pair + 1]).append(' ');
+            } else {
+                sb.append("   ");
+            }
+        }
+        sb.append("| ");
+        for (int x = 0; x < count; x++) {
+            final byte b = data.get(index + x);
+            sb.append((b >= 32 && b <= 126) ? (char) b : '.');
+        }
+        while (sb.length() - base < 78) {
+            sb.append(' ');
+        }
+    }
+
+    /**
+     * Find every occurrence of a byte pattern in the remaining bytes of a
+     * ByteBuffer, using the Boyer-Moore-Horspool algorithm. Occurrences may
+     * overlap. The buffer's position is not affected.
+     * @param buffer the buffer to search
+     * @param pattern the bytes to find; must not be empty
+     * @return the offsets of the occurrences, relative to the buffer's
+     * position, in ascending order
+     */
+    public static int[] search(final ByteBuffer buffer, final byte[] pattern) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Cannot search for an empty pattern");
+        }
+        final int start = buffer.position();
+        final int len = buffer.remaining();
+        final int last = pattern.length - 1;
+        final int[] skip = new int[256];
+        for (int i = 0; i < 256; i++) {
+            skip[i] = pattern.length;
+        }
+        for (int i = 0; i < last; i++) {
+            skip[pattern[i] & 0xff] = last - i;
+        }
+
+        int[] found = new int[8];
+        int count = 0;
+        int at = 0;
+        while (at + last < len) {
+            final byte end = buffer.get(start + at + last);
+            if (end == pattern[last]) {
+                int i = last - 1;
+                while (i >= 0 && buffer.get(start + at + i) == pattern[i]) {
+                    i--;
+                }
+                if (i < 0) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count << 1);
+                    }
+                    found[count++] = at;
+                }
+            }
+            at += skip[end & 0xff];
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Find every occurrence of a byte pattern in the remaining bytes of a
+     * ByteBuffer, and produce a hex/ascii dump of only the lines containing
+     * them (including any line that an occurrence runs on into). Offsets are
+     * relative to the buffer's position, which is not affected.
+     * @param buffer the buffer to search
+     * @param pattern the bytes to find; must not be empty
+     * @return the dump lines containing the occurrences, in ascending order
+     */
+    public static String[] hexDumpMatches(final ByteBuffer buffer, final byte[] pattern) {
+        final int[] offsets = search(buffer, pattern);
+        final int start = buffer.position();
+        final int len = buffer.remaining();
+        final List<String> lines = new ArrayList<>();
+        int nextLine = 0; // first line not yet emitted
+        for (final int offset : offsets) {
+            final int firstLine = Math.max(nextLine, offset >>> 4);
+            final int lastLine = (offset + pattern.length - 1) >>> 4;
+            for (int line = firstLine; line <= lastLine; line++) {
+                final int lineOffset = line << 4;
+                final StringBuilder sb = new StringBuilder(78);
+                appendHexDumpLine(sb, buffer, start + lineOffset, Math.min(16, len - lineOffset), lineOffset);
+                lines.add(sb.toString());
+            }
+            nextLine = Math.max(nextLine, lastLine + 1);
+        }
+        return lines.toArray(new String[0]);
+    }
+
     /**
      * Convert the first two characters of a hex dump into a byte
      * @param h a string starting with 2 hex characters
@@ -241,7 +482,16 @@ public final class HexDump {
         final byte[] bytes = new byte[hexdumpLength >> 1];
         int j = 0;
         for (int i = 0; i < hexdumpLength; i += 2) {
-            bytes[j++] = hex2byte(hexdump.charAt(i), hexdump.charAt(i + 1));
+            final char h = hexdump.charAt(i);
+            final char l = hexdump.charAt(i + 1);
+            final int hv = h < 128 ? NIBBLE_VALUES[h] : -1;
+            final int lv = l < 128 ? NIBBLE_VALUES[l] : -1;
+            if ((hv | lv) < 0) {
+                // not a plain hex pair; let the general path decode or reject it
+                bytes[j++] = hex2byte(h, l);
+            } else {
+                bytes[j++] = (byte) ((hv << 4) | lv);
+            }
         }
         return bytes;
     }
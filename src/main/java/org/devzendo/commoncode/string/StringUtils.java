@@ -18,10 +18,13 @@ package org.devzendo.commoncode.string;
 
 import java.io.File;
 import java.io.UnsupportedEncodingException;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
 import java.text.NumberFormat;
 import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.List;
+import java.util.Locale;
 
 /**
  * Toolkit for String utility methods.
@@ -70,27 +73,42 @@ public final class StringUtils {
      * @return e.g. 1KB
      */
     public static String translateByteUnits(final long bytes) {
-        //myLogger.debug("Converting " + bytes + " into byte units... ");
-        final Formatter fmt = new Formatter();
+        final StringBuilder sb = new StringBuilder(9);
+        appendByteUnits(sb, bytes);
+        return sb.toString();
+    }
+
+    /**
+     * Append the SI binary representation of a number of bytes, as produced
+     * by translateByteUnits, to a StringBuilder without creating any garbage.
+     * @param sb the StringBuilder to append to
+     * @param bytes the number of bytes, e.g. 1024
+     */
+    public static void appendByteUnits(final StringBuilder sb, final long bytes) {
         final double work = bytes;
         if (bytes < KILO) {
-            //myLogger.debug("BYTES: " + Long.valueOf(bytes));
-            fmt.format("%4dB", Long.valueOf(bytes));
+            final int start = sb.length();
+            appendDecimal(sb, bytes, formatSymbols().zeroDigit);
+            padLeft(sb, start, 4);
+            sb.append('B');
         } else if (bytes < MEGA) {
-            //myLogger.debug("KILOBYTES: " + Double.valueOf(work / KILO));
-            fmt.format("%6.2fKB", Double.valueOf(work / KILO));
+            appendFixed2(sb, work / KILO, 6);
+            sb.append("KB");
         } else if (bytes < GIGA) {
-            fmt.format("%6.2fMB", Double.valueOf(work / MEGA));
+            appendFixed2(sb, work / MEGA, 6);
+            sb.append("MB");
         } else if (bytes < TERA) {
-            fmt.format("%6.2fGB", Double.valueOf(work / GIGA));
+            appendFixed2(sb, work / GIGA, 6);
+            sb.append("GB");
         } else if (bytes < PETA) {
-            fmt.format("%6.2fTB", Double.valueOf(work / TERA));
+            appendFixed2(sb, work / TERA, 6);
+            sb.append("TB");
         } else if (bytes < ETA) {
-            fmt.format("%6.2fPB", Double.valueOf(work / PETA));
+            appendFixed2(sb, work / PETA, 6);
+            sb.append("PB");
         } else {
-            fmt.format("???.?xB");
+            sb.append("???.?xB");
         }
-        return fmt.toString();
     }
 
     /**
@@ -181,9 +199,22 @@ public final class StringUtils {
      * @return the time, stupid
      */
     public static String translateTimeDuration(final long ms) {
+        final StringBuilder sb = new StringBuilder();
+        appendTimeDuration(sb, ms);
+        return sb.toString();
+    }
+
+    /**
+     * Append a human-understandable description of a number of milliseconds,
+     * as produced by translateTimeDuration, to a StringBuilder without
+     * creating any garbage.
+     * @param sb the StringBuilder to append to
+     * @param ms the number of milliseconds
+     */
+    public static void appendTimeDuration(final StringBuilder sb, final long ms) {
+        final int start = sb.length();
         long m = ms;
         long v = 0;
-        final StringBuilder sb = new StringBuilder();
         if (m > MS_IN_WEEK) {
             v = m / MS_IN_WEEK;
             m %= MS_IN_WEEK;
@@ -218,10 +249,9 @@ public final class StringUtils {
             sb.append(m);
             sb.append("ms ");
         }
-        if (sb.length() > 0 && sb.charAt(sb.length() - 1) == ' ') {
+        if (sb.length() > start && sb.charAt(sb.length() - 1) == ' ') {
             sb.deleteCharAt(sb.length() - 1);
         }
-        return sb.toString();
     }
 
     /**
@@ -236,6 +266,38 @@ public final class StringUtils {
         return nf.format(bytesTransferred);
     }
 
+    /**
+     * Append the comma-ized version of a number, as produced by
+     * translateCommaBytes, to a StringBuilder. No garbage is created unless
+     * the default locale's number format is unusual (e.g. has a prefix or
+     * suffix), in which case translateCommaBytes is used.
+     * @param sb the StringBuilder to append to
+     * @param bytesTransferred a number
+     */
+    public static void appendCommaBytes(final StringBuilder sb, final long bytesTransferred) {
+        final FormatSymbols symbols = formatSymbols();
+        if (!symbols.simpleGrouping || bytesTransferred == Long.MIN_VALUE) {
+            sb.append(translateCommaBytes(bytesTransferred));
+            return;
+        }
+        long n = bytesTransferred;
+        if (n < 0) {
+            sb.append(symbols.minusSign);
+            n = -n;
+        }
+        final int start = sb.length();
+        int digits = 0;
+        do {
+            if (digits != 0 && digits % symbols.groupingSize == 0) {
+                sb.append(symbols.groupingSeparator);
+            }
+            sb.append((char) (symbols.zeroDigit + (int) (n % 10)));
+            n /= 10;
+            digits++;
+        } while (n != 0);
+        reverse(sb, start);
+    }
+
     /**
      * Translate a bandwidth figure.
      * @param dur How many ms the transfer took
@@ -244,23 +306,32 @@ public final class StringUtils {
      */
     public static String translateBandwidth(final long dur, final long bytesTransferred) {
         final StringBuilder sb = new StringBuilder();
+        appendBandwidth(sb, dur, bytesTransferred);
+        return sb.toString();
+    }
+
+    /**
+     * Append a bandwidth figure, as produced by translateBandwidth, to a
+     * StringBuilder without creating any garbage.
+     * @param sb the StringBuilder to append to
+     * @param dur How many ms the transfer took
+     * @param bytesTransferred How many bytes were transferred
+     */
+    public static void appendBandwidth(final StringBuilder sb, final long dur, final long bytesTransferred) {
         final double elapsedSecsD = (dur) / 1000.0;
         final double xferRate = (bytesTransferred / MEGA) / elapsedSecsD;
-        sb.append(translateByteUnits(bytesTransferred));
+        appendByteUnits(sb, bytesTransferred);
         sb.append(" (");
-        sb.append(translateCommaBytes(bytesTransferred));
+        appendCommaBytes(sb, bytesTransferred);
         sb.append(" byte");
         if (bytesTransferred != 1) {
             sb.append("s");
         }
         sb.append(") transferred in ");
-        sb.append(translateTimeDuration(dur));
+        appendTimeDuration(sb, dur);
         sb.append(" (");
-        final Formatter fmt = new Formatter();
-        fmt.format("%.2f", Double.valueOf(xferRate));
-        sb.append(fmt.toString());
+        appendFixed2(sb, xferRate, 0);
         sb.append(" MB/s)");
-        return sb.toString();
     }
 
     /**
@@ -274,6 +345,151 @@ public final class StringUtils {
         return new Formatter().format("%3.2f%%", Double.valueOf(p));
     }
 
+    /**
+     * Append a fraction as a percentage, as produced by translatePercentage,
+     * to a StringBuilder without creating any garbage.
+     * @param sb the StringBuilder to append to
+     * @param numerator e.g. 5
+     * @param denominator e.g. 10
+     */
+    public static void appendPercentage(final StringBuilder sb, final long numerator, final long denominator) {
+        final double p = ((double) numerator / (double) denominator) * 100.0;
+        appendFixed2(sb, p, 3);
+        sb.append('%');
+    }
+
+    /**
+     * The symbols of the default format locale, as used by Formatter and
+     * NumberFormat, cached so that the append methods need not look them up
+     * on every call.
+     */
+    private static final class FormatSymbols {
+        private final Locale locale;
+        private final char zeroDigit;
+        private final char decimalSeparator;
+        private final char minusSign;
+        private final char groupingSeparator;
+        private final int groupingSize;
+        private final boolean simpleGrouping;
+
+        FormatSymbols(final Locale locale) {
+            this.locale = locale;
+            final DecimalFormatSymbols dfs = DecimalFormatSymbols.getInstance(locale);
+            zeroDigit = dfs.getZeroDigit();
+            decimalSeparator = dfs.getDecimalSeparator();
+            minusSign = dfs.getMinusSign();
+            groupingSeparator = dfs.getGroupingSeparator();
+            final NumberFormat nf = NumberFormat.getNumberInstance(locale);
+            if (nf instanceof DecimalFormat) {
+                final DecimalFormat df = (DecimalFormat) nf;
+                groupingSize = df.getGroupingSize();
+                simpleGrouping = groupingSize > 0
+                        && df.getPositivePrefix().isEmpty() && df.getPositiveSuffix().isEmpty()
+                        && df.getNegativePrefix().equals(String.valueOf(minusSign))
+                        && df.getNegativeSuffix().isEmpty();
+            } else {
+                groupingSize = 0;
+                simpleGrouping = false;
+            }
+        }
+    }
+
+    private static volatile FormatSymbols formatSymbols;
+
+    private static FormatSymbols formatSymbols() {
+        final Locale locale = Locale.getDefault(Locale.Category.FORMAT);
+        FormatSymbols symbols = formatSymbols;
+        if (symbols == null || !symbols.locale.equals(locale)) {
+            symbols = new FormatSymbols(locale);
+            formatSymbols = symbols;
+        }
+        return symbols;
+    }
+
+    /**
+     * Append a double as Formatter's %[width].2f would. Formatter rounds
+     * half-up on the decimal digits of the double, so when the value is
+     * within a hair of a tie (or is huge, or not finite) and the fixed-point
+     * arithmetic here might disagree, Formatter itself is used.
+     */
+    private static void appendFixed2(final StringBuilder sb, final double value, final int width) {
+        final double magnitude = Math.abs(value);
+        final double scaled = magnitude * 100.0;
+        final long floor = (long) scaled;
+        final double fraction = scaled - floor;
+        if (Double.isNaN(value) || magnitude >= 1e9 || Math.abs(fraction - 0.5) < 1e-4) {
+            sb.append(new Formatter().format(width == 0 ? "%.2f" : "%" + width + ".2f", Double.valueOf(value)));
+            return;
+        }
+        final long hundredths = fraction > 0.5 ? floor + 1 : floor;
+        final FormatSymbols symbols = formatSymbols();
+        final int start = sb.length();
+        if (Double.doubleToRawLongBits(value) < 0) {
+            sb.append('-');
+        }
+        appendDecimal(sb, hundredths / 100, symbols.zeroDigit);
+        sb.append(symbols.decimalSeparator);
+        final int h = (int) (hundredths % 100);
+        sb.append((char) (symbols.zeroDigit + h / 10));
+        sb.append((char) (symbols.zeroDigit + h % 10));
+        padLeft(sb, start, width);
+    }
+
+    // Appends a long as Formatter's %d would (no grouping)
+    private static void appendDecimal(final StringBuilder sb, final long value, final char zeroDigit) {
+        if (zeroDigit == '0') {
+            sb.append(value);
+            return;
+        }
+        long n = value;
+        if (n < 0) {
+            sb.append('-');
+            if (n == Long.MIN_VALUE) {
+                // can't negate; peel off the last digit first
+                final int start = sb.length();
+                sb.append((char) (zeroDigit + (int) -(n % 10)));
+                n = -(n / 10);
+                while (n != 0) {
+                    sb.append((char) (zeroDigit + (int) (n % 10)));
+                    n /= 10;
+                }
+                reverse(sb, start);
+                return;
+            }
+            n = -n;
+        }
+        final int start = sb.length();
+        do {
+            sb.append((char) (zeroDigit + (int) (n % 10)));
+            n /= 10;
+        } while (n != 0);
+        reverse(sb, start);
+    }
+
+    private static void reverse(final StringBuilder sb, final int start) {
+        for (int i = start, j = sb.length() - 1; i < j; i++, j--) {
+            final char c = sb.charAt(i);
+            sb.setCharAt(i, sb.charAt(j));
+            sb.setCharAt(j, c);
+        }
+    }
+
+    // Right-justifies the text appended since start in a field of width characters
+    private static void padLeft(final StringBuilder sb, final int start, final int width) {
+        final int pad = width - (sb.length() - start);
+        if (pad <= 0) {
+            return;
+        }
+        final int end = sb.length();
+        sb.setLength(end + pad);
+        for (int i = end - 1; i >= start; i--) {
+            sb.setCharAt(i + pad, sb.charAt(i));
+        }
+        for (int i = start; i < start + pad; i++) {
+            sb.setCharAt(i, ' ');
+        }
+    }
+
 
     /**
      * Join words together
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.time;
+
+/**
+ * A source of time. Elapsed times and deadlines should be measured with
+ * nanoTime, which is monotonic: it does not jump when the system clock is
+ * adjusted.
+ * @author matt
+ *
+ */
+public interface Clock {
+    /**
+     * @return a monotonic time in nanoseconds, relative to some arbitrary
+     * origin; only differences between values are meaningful
+     */
+    long nanoTime();
+
+    /**
+     * @return the number of milliseconds since the start of the UNIX epoch
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.time;
+
+import org.devzendo.commoncode.string.StringUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations in nanoseconds, cheap enough to record into on
+ * every event from any number of threads: recording is a couple of atomic
+ * increments, with no allocation or locking.
+ * <p>
+ * Durations are counted in log-linear buckets: exact below 16ns, then
+ * sixteen buckets per power of two, so percentiles are reported to within
+ * 1/16 (about 6%) of the true value, over the whole range of a long.
+ * @author matt
+ *
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = SUB_BUCKETS + (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+    /**
+     * Record a duration. Negative durations are recorded as zero.
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0L, nanos);
+        counts.incrementAndGet(bucket(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    static int bucket(final long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int shift = exponent - SUB_BUCKET_BITS;
+        final int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    // The highest value that falls into a bucket
+    static long bucketUpperBound(final int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+        final long subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        final long lowest = (SUB_BUCKETS + subBucket) << shift;
+        return lowest + ((1L << shift) - 1);
+    }
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the longest duration recorded, in nanoseconds; 0 if none
+     */
+    public long getMaxNanos() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean duration recorded, in nanoseconds; 0 if none
+     */
+    public double getMeanNanos() {
+        final long n = count.sum();
+        return n == 0 ? 0.0 : (double) total.sum() / n;
+    }
+
+    /**
+     * @param percentile e.g. 99.9
+     * @return an upper bound (within about 6%) of the duration that the
+     * given percentage of recorded durations do not exceed, in nanoseconds;
+     * 0 if none have been recorded
+     */
+    public long getPercentileNanos(final double percentile) {
+        if (percentile < 0.0 || percentile > 100.0) {
+            throw new IllegalArgumentException("Percentile " + percentile + " is not between 0 and 100");
+        }
+        long remaining = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            remaining += counts.get(i);
+        }
+        if (remaining == 0) {
+            return 0L;
+        }
+        final long rank = Math.max(1L, (long) Math.ceil(remaining * percentile / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(bucketUpperBound(i), getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+
+    /**
+     * Forget all recorded durations. Durations recorded concurrently with
+     * the reset may be partially forgotten.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0L);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * Append a summary to a StringBuilder, e.g.
+     * "count 1000, mean 850us, 50% 600us, 99% 3ms, 99.9% 7ms, max 9ms"
+     * @param sb the StringBuilder to append to
+     */
+    public void appendTo(final StringBuilder sb) {
+        sb.append("count ").append(getCount());
+        sb.append(", mean ");
+        appendDuration(sb, (long) getMeanNanos());
+        sb.append(", 50% ");
+        appendDuration(sb, getPercentileNanos(50.0));
+        sb.append(", 99% ");
+        appendDuration(sb, getPercentileNanos(99.0));
+        sb.append(", 99.9% ");
+        appendDuration(sb, getPercentileNanos(99.9));
+        sb.append(", max ");
+        appendDuration(sb, getMaxNanos());
+    }
+
+    private static void appendDuration(final StringBuilder sb, final long nanos) {
+        if (nanos < TimeUnit.MILLISECONDS.toNanos(1)) {
+            sb.append(TimeUnit.NANOSECONDS.toMicros(nanos)).append("us");
+        } else {
+            StringUtils.appendTimeDuration(sb, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+}
@@ -16,13 +16,23 @@
 
 package org.devzendo.commoncode.time;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
 /**
- * A Toolkit for sleeping. Allows tests to speed time up.
+ * A Toolkit for sleeping, and a Clock. Allows tests to speed time up.
+ * <p>
+ * Time is measured with System.nanoTime, so intervals do not jump when the
+ * system clock is adjusted; currentTimeMillis is anchored to the system clock
+ * when the Sleeper is created, then advances (at the sped-up rate) with
+ * nanoTime.
  * @author matt
  *
  */
-public final class Sleeper {
+public class Sleeper implements Clock {
     private final int fasterBy;
+    private final long originNanos;
+    private final long originMillis;
 
     /**
      * Create a Sleeper where time is some number of times faster than
@@ -35,6 +45,8 @@ public final class Sleeper {
             throw new IllegalArgumentException(warning);
         }
         this.fasterBy = timesFaster;
+        this.originNanos = System.nanoTime();
+        this.originMillis = System.currentTimeMillis();
     }
 
     /**
@@ -42,29 +54,82 @@ public final class Sleeper {
      * used in the real system.
      */
     public Sleeper() {
-        this.fasterBy = 1;
+        this(1);
+    }
+
+    /**
+     * @return the number of times that time is faster by
+     */
+    public int getTimesFaster() {
+        return fasterBy;
     }
-    
+
     /**
      * Sleep for a number of milliseconds, modified by the speedup of this
-     * Sleeper.
+     * Sleeper. If the sleeping thread is interrupted, this returns early,
+     * with the thread's interrupted status set.
      * @param millis a number of milliseconds that would be slept for if this
      * Sleeper was sleeping in real time.
      */
     public void sleep(final long millis) {
         try {
-            Thread.sleep(millis / fasterBy);
+            sleepNanos(TimeUnit.MILLISECONDS.toNanos(millis));
         } catch (final InterruptedException e) {
-            // do nothing...
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Sleep for a duration, modified by the speedup of this Sleeper.
+     * @param duration the duration that would be slept for if this Sleeper
+     * was sleeping in real time
+     * @param unit the unit of duration
+     * @throws InterruptedException if the sleeping thread is interrupted
+     */
+    public void sleep(final long duration, final TimeUnit unit) throws InterruptedException {
+        sleepNanos(unit.toNanos(duration));
+    }
+
+    /**
+     * Sleep for a number of nanoseconds, modified by the speedup of this
+     * Sleeper.
+     * @param nanos a number of nanoseconds that would be slept for if this
+     * Sleeper was sleeping in real time.
+     * @throws InterruptedException if the sleeping thread is interrupted
+     */
+    public void sleepNanos(final long nanos) throws InterruptedException {
+        final long realNanos = nanos / fasterBy;
+        final long deadline = System.nanoTime() + realNanos;
+        long remaining = realNanos;
+        // parkNanos may return spuriously, so park until the deadline passes.
+        while (true) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            if (remaining <= 0) {
+                return;
+            }
+            LockSupport.parkNanos(this, remaining);
+            remaining = deadline - System.nanoTime();
         }
     }
 
+    /**
+     * Get a monotonic time in nanoseconds, but speeded up.
+     * @return nanoseconds, relative to some arbitrary origin
+     */
+    @Override
+    public long nanoTime() {
+        return originNanos + (System.nanoTime() - originNanos) * fasterBy;
+    }
+
     /**
      * Get the number of milliseconds since the start of the UNIX epoch, but
      * speeded up.
      * @return milliseconds
      */
+    @Override
     public long currentTimeMillis() {
-        return System.currentTimeMillis() * fasterBy;
+        return originMillis + TimeUnit.NANOSECONDS.toMillis((System.nanoTime() - originNanos) * fasterBy);
     }
 }
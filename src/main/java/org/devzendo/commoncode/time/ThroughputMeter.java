@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.time;
+
+import org.devzendo.commoncode.string.StringUtils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the throughput of a long-running transfer. Any number of threads
+ * may record bytes with add(); this only touches a striped LongAdder, so it is
+ * cheap and does not contend. The rates are computed when asked for:
+ * <ul>
+ * <li>the instantaneous rate, over the most recent sample interval;</li>
+ * <li>a moving average, exponentially weighted with a given time constant;</li>
+ * <li>the overall rate since the meter was created.</li>
+ * </ul>
+ * All rates are in bytes per second.
+ * @author matt
+ *
+ */
+public final class ThroughputMeter {
+    private final Clock clock;
+    private final long sampleIntervalNanos;
+    private final double averagingNanos;
+    private final LongAdder total = new LongAdder();
+    private final long startNanos;
+
+    private final Object sampleLock = new Object();
+    private long lastSampleNanos; // guarded by lock on sampleLock
+    private long lastSampleTotal; // guarded by lock on sampleLock
+    private double instantaneousRate; // guarded by lock on sampleLock
+    private double averageRate; // guarded by lock on sampleLock
+    private boolean sampled; // guarded by lock on sampleLock
+
+    /**
+     * Create a ThroughputMeter that samples at most once a second, and
+     * averages over roughly the last five seconds, in real time.
+     */
+    public ThroughputMeter() {
+        this(new Sleeper(), 1000L, 5000L);
+    }
+
+    /**
+     * Create a ThroughputMeter.
+     * @param clock the source of time, e.g. a Sleeper
+     * @param sampleIntervalMillis the minimum period over which the
+     * instantaneous rate is measured
+     * @param averagingMillis the time constant of the moving average
+     */
+    public ThroughputMeter(final Clock clock, final long sampleIntervalMillis, final long averagingMillis) {
+        if (sampleIntervalMillis <= 0 || averagingMillis <= 0) {
+            throw new IllegalArgumentException("Sample interval and averaging period must be positive");
+        }
+        this.clock = clock;
+        this.sampleIntervalNanos = TimeUnit.MILLISECONDS.toNanos(sampleIntervalMillis);
+        this.averagingNanos = TimeUnit.MILLISECONDS.toNanos(averagingMillis);
+        this.startNanos = clock.nanoTime();
+        this.lastSampleNanos = startNanos;
+    }
+
+    /**
+     * Record that some bytes have been transferred.
+     * @param bytes the number of bytes
+     */
+    public void add(final long bytes) {
+        total.add(bytes);
+    }
+
+    /**
+     * @return the total number of bytes transferred so far
+     */
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * @return the number of milliseconds since this meter was created
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(clock.nanoTime() - startNanos);
+    }
+
+    /**
+     * @return the rate over the most recently completed sample interval, in
+     * bytes per second
+     */
+    public double getInstantaneousRate() {
+        synchronized (sampleLock) {
+            sample();
+            return instantaneousRate;
+        }
+    }
+
+    /**
+     * @return the exponentially weighted moving average rate, in bytes per
+     * second
+     */
+    public double getAverageRate() {
+        synchronized (sampleLock) {
+            sample();
+            return averageRate;
+        }
+    }
+
+    /**
+     * @return the rate since this meter was created, in bytes per second
+     */
+    public double getOverallRate() {
+        final long elapsed = getElapsedMillis();
+        return elapsed <= 0 ? 0.0 : (getTotal() * 1000.0) / elapsed;
+    }
+
+    // Take a new sample if the sample interval has passed since the last one.
+    private void sample() {
+        final long now = clock.nanoTime();
+        final long dt = now - lastSampleNanos;
+        if (dt < sampleIntervalNanos) {
+            return;
+        }
+        final long sum = total.sum();
+        instantaneousRate = ((sum - lastSampleTotal) * 1e9) / dt;
+        if (sampled) {
+            averageRate += (1.0 - Math.exp(-dt / averagingNanos)) * (instantaneousRate - averageRate);
+        } else {
+            averageRate = instantaneousRate;
+            sampled = true;
+        }
+        lastSampleNanos = now;
+        lastSampleTotal = sum;
+    }
+
+    /**
+     * Append a description of the current rates and the overall transfer to
+     * a StringBuilder, e.g.
+     * "  1.50MB/s now,   1.20MB/s average;  12.00MB (12,582,912 bytes)
+     * transferred in 10s 0ms (1.20 MB/s)"
+     * @param sb the StringBuilder to append to
+     */
+    public void appendTo(final StringBuilder sb) {
+        final double instantaneous;
+        final double average;
+        synchronized (sampleLock) {
+            sample();
+            instantaneous = instantaneousRate;
+            average = averageRate;
+        }
+        StringUtils.appendByteUnits(sb, (long) instantaneous);
+        sb.append("/s now, ");
+        StringUtils.appendByteUnits(sb, (long) average);
+        sb.append("/s average; ");
+        StringUtils.appendBandwidth(sb, getElapsedMillis(), getTotal());
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        appendTo(sb);
+        return sb.toString();
+    }
+}
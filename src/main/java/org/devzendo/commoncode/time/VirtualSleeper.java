@@ -0,0 +1,406 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.time;
+
+import org.devzendo.commoncode.concurrency.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A Sleeper whose time is virtual: it starts at zero, and advances only when
+ * driven, so simulations of hours of activity run in milliseconds, in a
+ * repeatable order.
+ * <p>
+ * Threads that sleep are suspended until virtual time reaches the end of their
+ * sleep. Tasks may also be scheduled to run at a virtual time; they run on the
+ * thread that advances time. Time advances:
+ * <ul>
+ * <li>when advance() or advanceTo() is called: sleepers are woken, and tasks
+ * run, one at a time in order of their wake-up time (then of when they were
+ * scheduled), and after each, time waits until all participating threads are
+ * idle;</li>
+ * <li>or, if auto-advance is enabled, by a background thread, to the next
+ * wake-up time, whenever all participating threads are idle.</li>
+ * </ul>
+ * Participating threads are those that have slept or awaited on this
+ * Sleeper, or called participate(). A thread is idle only when it is sleeping
+ * or awaiting here, or has terminated; a participant that is otherwise
+ * blocked or waiting (e.g. on a lock, queue or I/O) may be about to schedule
+ * work, so holds time still. Participants that hand work to each other
+ * should therefore wait for it with await(), and signal it with signalAll():
+ * a signalled thread counts as busy until it awaits or sleeps again, so time
+ * cannot advance in between.
+ * @author matt
+ *
+ */
+public class VirtualSleeper extends Sleeper {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VirtualSleeper.class);
+    private static final long IDLE_POLL_MILLIS = 1L;
+
+    /**
+     * Something that happens at a virtual time: a sleeping thread waking, or
+     * a scheduled task running.
+     */
+    public static final class Event implements Comparable<Event> {
+        private final long deadlineNanos;
+        private final long sequence;
+        private final Thread thread;
+        private final Runnable task;
+        private boolean fired; // guarded by lock on the sleeper's lock
+
+        private Event(final long deadlineNanos, final long sequence, final Thread thread, final Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.sequence = sequence;
+            this.thread = thread;
+            this.task = task;
+        }
+
+        /**
+         * @return the virtual time at which this happens, in nanoseconds
+         */
+        public long getDeadlineNanos() {
+            return deadlineNanos;
+        }
+
+        @Override
+        public int compareTo(final Event other) {
+            final int byDeadline = Long.compare(deadlineNanos, other.deadlineNanos);
+            return byDeadline != 0 ? byDeadline : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final long originMillis;
+    private final Object advanceLock = new Object();
+    private final Object lock = new Object();
+    private final PriorityQueue<Event> events = new PriorityQueue<>(); // guarded by lock
+    private final Set<Thread> participants = new HashSet<>(); // guarded by lock
+    private final Set<Thread> sleeping = new HashSet<>(); // guarded by lock
+    private final Set<Thread> awaiting = new HashSet<>(); // guarded by lock
+    private final Set<Thread> waking = new HashSet<>(); // guarded by lock
+    private volatile long nowNanos = 0L; // written with lock held
+    private long nextSequence = 0L; // guarded by lock
+    private Thread autoAdvancer; // guarded by lock
+
+    /**
+     * Create a VirtualSleeper whose currentTimeMillis starts at the start of
+     * the UNIX epoch.
+     */
+    public VirtualSleeper() {
+        this(0L);
+    }
+
+    /**
+     * Create a VirtualSleeper whose currentTimeMillis starts at a given time.
+     * @param originMillis the initial currentTimeMillis
+     */
+    public VirtualSleeper(final long originMillis) {
+        super();
+        this.originMillis = originMillis;
+    }
+
+    @Override
+    public long nanoTime() {
+        return nowNanos;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return originMillis + TimeUnit.NANOSECONDS.toMillis(nowNanos);
+    }
+
+    /**
+     * Suspend the calling thread until virtual time has advanced by a number
+     * of nanoseconds.
+     * @param nanos the number of nanoseconds to sleep for
+     * @throws InterruptedException if the sleeping thread is interrupted
+     */
+    @Override
+    public void sleepNanos(final long nanos) throws InterruptedException {
+        if (Thread.interrupted()) {
+            throw new InterruptedException();
+        }
+        if (nanos <= 0) {
+            return;
+        }
+        final Thread current = Thread.currentThread();
+        synchronized (lock) {
+            final Event event = new Event(nowNanos + nanos, nextSequence++, current, null);
+            events.add(event);
+            participants.add(current);
+            sleeping.add(current);
+            lock.notifyAll();
+            try {
+                while (!event.fired) {
+                    lock.wait();
+                }
+            } catch (final InterruptedException ie) {
+                events.remove(event);
+                throw ie;
+            } finally {
+                sleeping.remove(current);
+                waking.remove(current);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Suspend the calling thread, which counts as idle meanwhile, until a
+     * condition holds. The condition is evaluated with this Sleeper's lock
+     * held, initially and after each signalAll(), so must be quick and must
+     * not block, e.g. checking a concurrent queue for work.
+     * @param condition the condition to wait for
+     * @throws InterruptedException if the awaiting thread is interrupted
+     */
+    public void await(final BooleanSupplier condition) throws InterruptedException {
+        final Thread current = Thread.currentThread();
+        synchronized (lock) {
+            participants.add(current);
+            try {
+                while (!condition.getAsBoolean()) {
+                    awaiting.add(current);
+                    waking.remove(current);
+                    lock.notifyAll();
+                    while (awaiting.contains(current)) {
+                        lock.wait();
+                    }
+                }
+            } finally {
+                awaiting.remove(current);
+                waking.remove(current);
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Wake all threads awaiting a condition, so they re-evaluate it. They
+     * count as busy until they await or sleep again.
+     */
+    public void signalAll() {
+        synchronized (lock) {
+            for (final Thread thread : awaiting) {
+                waking.add(thread);
+            }
+            awaiting.clear();
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Schedule a task to run when virtual time has advanced by a number of
+     * nanoseconds. It runs on the thread that advances time, and must not
+     * sleep on this Sleeper.
+     * @param nanosFromNow the delay
+     * @param task the task
+     * @return the scheduled event, which can be cancelled
+     */
+    public Event schedule(final long nanosFromNow, final Runnable task) {
+        synchronized (lock) {
+            final Event event = new Event(nowNanos + Math.max(0, nanosFromNow), nextSequence++, null, task);
+            events.add(event);
+            lock.notifyAll();
+            return event;
+        }
+    }
+
+    /**
+     * Cancel a scheduled task.
+     * @param event the event returned by schedule
+     * @return true iff the task had not yet run, and now will not
+     */
+    public boolean cancel(final Event event) {
+        synchronized (lock) {
+            return events.remove(event);
+        }
+    }
+
+    /**
+     * @return the number of sleeping threads and scheduled tasks that are yet
+     * to wake or run
+     */
+    public int getPendingCount() {
+        synchronized (lock) {
+            return events.size();
+        }
+    }
+
+    /**
+     * Count the calling thread as participating, so virtual time only
+     * advances while it is idle: sleeping or awaiting here, or terminated.
+     */
+    public void participate() {
+        synchronized (lock) {
+            participants.add(Thread.currentThread());
+        }
+    }
+
+    /**
+     * Advance virtual time by a duration, waking sleepers and running tasks
+     * that fall due on the way.
+     * @param duration the duration
+     * @param unit the unit of duration
+     */
+    public void advance(final long duration, final TimeUnit unit) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("Cannot advance time by a negative duration");
+        }
+        synchronized (advanceLock) {
+            advanceTo(nowNanos + unit.toNanos(duration));
+        }
+    }
+
+    /**
+     * Advance virtual time to a given time, waking sleepers and running tasks
+     * that fall due on the way.
+     * @param targetNanos the virtual time to advance to, in nanoseconds
+     */
+    public void advanceTo(final long targetNanos) {
+        synchronized (advanceLock) {
+            if (targetNanos < nowNanos) {
+                throw new IllegalArgumentException("Cannot move time backwards from " + nowNanos + "ns to " + targetNanos + "ns");
+            }
+            while (true) {
+                final Event event;
+                synchronized (lock) {
+                    awaitIdle();
+                    event = events.peek();
+                    if (event == null || event.deadlineNanos > targetNanos) {
+                        nowNanos = targetNanos;
+                        return;
+                    }
+                    events.poll();
+                    nowNanos = event.deadlineNanos;
+                    event.fired = true;
+                    if (event.thread != null) {
+                        waking.add(event.thread);
+                        lock.notifyAll();
+                    }
+                }
+                if (event.task != null) {
+                    try {
+                        event.task.run();
+                    } catch (final RuntimeException e) {
+                        LOGGER.warn("Virtual time task threw {}: {}", e.getClass().getSimpleName(), e.getMessage(), e);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Advance virtual time to the next wake-up time, if there is one.
+     * @return true iff there was something to wake or run
+     */
+    public boolean advanceToNext() {
+        synchronized (advanceLock) {
+            final long next;
+            synchronized (lock) {
+                awaitIdle();
+                final Event event = events.peek();
+                if (event == null) {
+                    return false;
+                }
+                next = event.deadlineNanos;
+            }
+            advanceTo(next);
+            return true;
+        }
+    }
+
+    /**
+     * Enable or disable auto-advance, where a background thread advances time
+     * to the next wake-up time whenever all participating threads are idle.
+     * @param enabled true to enable
+     */
+    public void setAutoAdvance(final boolean enabled) {
+        synchronized (lock) {
+            if (enabled && autoAdvancer == null) {
+                autoAdvancer = new DaemonThreadFactory("virtual-time-").newThread(this::autoAdvance);
+                autoAdvancer.start();
+            } else if (!enabled && autoAdvancer != null) {
+                autoAdvancer.interrupt();
+                autoAdvancer = null;
+            }
+        }
+    }
+
+    private void autoAdvance() {
+        final Thread current = Thread.currentThread();
+        try {
+            while (true) {
+                synchronized (lock) {
+                    while (autoAdvancer == current && events.isEmpty()) {
+                        lock.wait();
+                    }
+                    if (autoAdvancer != current) {
+                        return;
+                    }
+                }
+                advanceToNext();
+            }
+        } catch (final InterruptedException ie) {
+            // auto-advance disabled
+        }
+    }
+
+    // Called with lock held; waits until all participants other than the
+    // caller are idle.
+    private void awaitIdle() {
+        final Thread current = Thread.currentThread();
+        boolean interrupted = false;
+        while (true) {
+            boolean idle = true;
+            final Iterator<Thread> it = participants.iterator();
+            while (it.hasNext()) {
+                final Thread thread = it.next();
+                if (!thread.isAlive()) {
+                    it.remove();
+                } else if (thread != current && !isIdle(thread)) {
+                    idle = false;
+                }
+            }
+            if (idle) {
+                break;
+            }
+            try {
+                lock.wait(IDLE_POLL_MILLIS);
+            } catch (final InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called with lock held. Only this Sleeper knows that a thread has no
+    // work: one blocked or waiting elsewhere may be about to schedule some.
+    private boolean isIdle(final Thread thread) {
+        if (waking.contains(thread)) {
+            return false;
+        }
+        return sleeping.contains(thread) || awaiting.contains(thread) || !thread.isAlive();
+    }
+}
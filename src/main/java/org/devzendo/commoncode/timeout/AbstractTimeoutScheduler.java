@@ -0,0 +1,500 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.timeout;
+
+import org.devzendo.commoncode.time.LatencyHistogram;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * The bookkeeping shared by TimeoutSchedulers: usage counting, timeout ids,
+ * the index of outstanding timeouts, lazily-checked deadlines for reset, and
+ * rescheduling of periodic timeouts, and histograms of how late timeouts fire
+ * and how long their handlers take. Subclasses supply the source of time, the
+ * queue that runs tasks after a delay, and (optionally) where handlers run.
+ * <p>
+ * The index is split by timeout id into stripes, each with its own lock,
+ * which also guards the state of the timeouts in it. So timer threads firing
+ * different timeouts, and threads scheduling, resetting or cancelling them,
+ * rarely wait for each other; none hold a lock while a handler runs.
+ * <p>
+ * A timeout is queued to run at its deadline. Resetting it to a later
+ * deadline just records the new deadline; when the queued task runs early, it
+ * queues itself again for the remainder. Only resetting to an earlier
+ * deadline re-enqueues immediately.
+ * <p>
+ * A batch of timeouts with the same deadline shares one queued task, which
+ * fires each of them; they only get queued tasks of their own if reset to an
+ * earlier deadline.
+ * @author matt
+ *
+ * @param <H> the type of handle to a queued task, used to dequeue it
+ */
+abstract class AbstractTimeoutScheduler<H> implements TimeoutScheduler {
+    // A power of two, comfortably more than the threads likely to contend
+    private static final int STRIPES = Integer.highestOneBit(4 * Runtime.getRuntime().availableProcessors() - 1) << 1;
+
+    private final Logger logger;
+    private final AtomicInteger usageCount = new AtomicInteger(0);
+    private final AtomicLong timeoutIdCount = new AtomicLong(0);
+    // Outstanding timeouts only: entries are removed when they fire, are
+    // cancelled, or the scheduler stops. Each stripe is guarded by lock on
+    // itself.
+    private final List<LongKeyedMap<Timeout>> stripes = new ArrayList<>(STRIPES);
+    // Excludes the timeouts of cancelled groups not yet removed
+    private final AtomicInteger liveCount = new AtomicInteger(0);
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private final LatencyHistogram handlerDuration = new LatencyHistogram();
+
+    protected AbstractTimeoutScheduler(final Logger logger) {
+        this.logger = logger;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes.add(new LongKeyedMap<>());
+        }
+    }
+
+    @Override
+    public abstract long nanoTime();
+
+    /**
+     * @param milliseconds a delay requested by a caller
+     * @return that delay in nanoseconds, in the scheduler's time scale
+     */
+    protected abstract long toNanos(long milliseconds);
+
+    /**
+     * Queue a task to run after a delay. May be called by several threads at
+     * once, with the lock on a stripe of the index held.
+     * @param delayNanos the delay, in the scheduler's time scale
+     * @param task the task
+     * @return a handle that can be passed to dequeue
+     */
+    protected abstract H enqueue(long delayNanos, Runnable task);
+
+    /**
+     * Remove a queued task, if it has not yet run. May be called by several
+     * threads at once, with the lock on a stripe of the index held.
+     * @param handle the handle returned by enqueue
+     */
+    protected abstract void dequeue(H handle);
+
+    /**
+     * Run a fired timeout's handler. By default, it runs on the thread that
+     * fired it.
+     * @param handler the handler, which does its own exception handling
+     */
+    protected void dispatch(final Runnable handler) {
+        handler.run();
+    }
+
+    /**
+     * Called when the scheduler is stopped for the last time, after all
+     * outstanding timeouts have been dequeued.
+     */
+    protected abstract void shutdown();
+
+    private LongKeyedMap<Timeout> stripe(final long id) {
+        return stripes.get((int) id & (STRIPES - 1));
+    }
+
+    private final class Timeout implements Runnable {
+        private final long id;
+        private final LongKeyedMap<Timeout> stripe;
+        private final Runnable handler;
+        private final long periodNanos; // 0: one-shot
+        private final boolean fixedRate;
+        private final TimeoutGroup group; // null if not in a group
+        private long deadlineNanos; // guarded by lock on the stripe
+        private long queuedForNanos; // guarded by lock on the stripe
+        private H handle; // guarded by lock on the stripe
+        private boolean sharedHandle; // guarded by lock on the stripe
+        private boolean running; // periodic handler running; guarded by lock on the stripe
+        private boolean resetWhileRunning; // guarded by lock on the stripe
+
+        Timeout(final long id, final Runnable handler, final long deadlineNanos, final long periodNanos,
+                final boolean fixedRate, final TimeoutGroup group) {
+            this.id = id;
+            this.stripe = stripe(id);
+            this.handler = handler;
+            this.deadlineNanos = deadlineNanos;
+            this.periodNanos = periodNanos;
+            this.fixedRate = fixedRate;
+            this.group = group;
+        }
+
+        // Called with the lock on the stripe held; a queued task shared
+        // with a batch is left to fire the rest of the batch.
+        void dequeueOwn() {
+            if (!sharedHandle) {
+                dequeue(handle);
+            }
+        }
+
+        boolean inCancelledGroup() {
+            return group != null && group.isCancelled();
+        }
+
+        // Called with the lock on the stripe held
+        void queue(final long now) {
+            final long delay = Math.max(0, deadlineNanos - now);
+            queuedForNanos = now + delay;
+            handle = enqueue(delay, this);
+            sharedHandle = false;
+        }
+
+        @Override
+        public void run() {
+            synchronized (stripe) {
+                if (stripe.get(id) != this) {
+                    return; // cancelled, or stopped
+                }
+                if (inCancelledGroup()) {
+                    remove(id);
+                    return;
+                }
+                final long now = nanoTime();
+                if (now < deadlineNanos) {
+                    queue(now); // reset to a later deadline since this was queued
+                    return;
+                }
+                lateness.record(now - deadlineNanos);
+                if (periodNanos == 0) {
+                    remove(id);
+                } else {
+                    running = true;
+                }
+            }
+            try {
+                dispatch(this::runHandler);
+            } catch (final RuntimeException e) {
+                // e.g. the handler executor has been shut down
+                logger.warn("Could not dispatch timeout handler: " + e.getMessage());
+            }
+        }
+
+        private void runHandler() {
+            final long start = nanoTime();
+            try {
+                handler.run();
+            } catch (final Exception e) {
+                logger.warn("Timeout handler threw " + e.getClass().getSimpleName() + ": " + e.getMessage(), e);
+            } finally {
+                handlerDuration.record(nanoTime() - start);
+            }
+            if (periodNanos != 0) {
+                synchronized (stripe) {
+                    running = false;
+                    if (stripe.get(id) != this) {
+                        return; // cancelled, or stopped
+                    }
+                    if (inCancelledGroup()) {
+                        remove(id);
+                        return;
+                    }
+                    final long now = nanoTime();
+                    if (resetWhileRunning) {
+                        resetWhileRunning = false; // the reset deadline stands
+                    } else {
+                        deadlineNanos = fixedRate ? deadlineNanos + periodNanos : now + periodNanos;
+                    }
+                    queue(now);
+                }
+            }
+        }
+    }
+
+    @Override
+    public TimeoutId schedule(final long millisecondsFromNow, final Runnable runnable) {
+        return add(millisecondsFromNow, 0, false, runnable, null);
+    }
+
+    @Override
+    public List<TimeoutId> scheduleAll(final long millisecondsFromNow, final List<? extends Runnable> runnables) {
+        return addAll(millisecondsFromNow, runnables, null);
+    }
+
+    @Override
+    public TimeoutGroup createGroup() {
+        return new TimeoutGroup(this);
+    }
+
+    @Override
+    public TimeoutId scheduleAtFixedRate(final long initialMilliseconds, final long periodMilliseconds, final Runnable runnable) {
+        return add(initialMilliseconds, checkPeriod(periodMilliseconds), true, runnable, null);
+    }
+
+    @Override
+    public TimeoutId scheduleWithFixedDelay(final long initialMilliseconds, final long delayMilliseconds, final Runnable runnable) {
+        return add(initialMilliseconds, checkPeriod(delayMilliseconds), false, runnable, null);
+    }
+
+    private static long checkPeriod(final long periodMilliseconds) {
+        if (periodMilliseconds <= 0) {
+            throw new IllegalArgumentException("Period of " + periodMilliseconds + "ms is not positive");
+        }
+        return periodMilliseconds;
+    }
+
+    @Override
+    public TimeoutId scheduleAtNanos(final long deadlineNanos, final Runnable runnable) {
+        checkStarted("schedule");
+        final long id = timeoutIdCount.incrementAndGet();
+        final Timeout timeout = new Timeout(id, runnable, deadlineNanos, 0, false, null);
+        join(null, 1);
+        synchronized (timeout.stripe) {
+            timeout.stripe.put(id, timeout);
+            timeout.queue(nanoTime());
+        }
+        return new TimeoutId(id);
+    }
+
+    TimeoutId add(final long millisecondsFromNow, final long periodMilliseconds,
+                  final boolean fixedRate, final Runnable runnable, final TimeoutGroup group) {
+        checkStarted("schedule");
+        final long id = timeoutIdCount.incrementAndGet();
+        join(group, 1);
+        final long now = nanoTime();
+        final Timeout timeout = new Timeout(id, runnable, now + toNanos(millisecondsFromNow),
+                toNanos(periodMilliseconds), fixedRate, group);
+        // Hold the lock so that a timeout that fires immediately cannot
+        // miss its own entry.
+        synchronized (timeout.stripe) {
+            timeout.stripe.put(id, timeout);
+            timeout.queue(now);
+        }
+        return new TimeoutId(id);
+    }
+
+    List<TimeoutId> addAll(final long millisecondsFromNow, final List<? extends Runnable> runnables, final TimeoutGroup group) {
+        checkStarted("schedule");
+        final List<TimeoutId> timeoutIds = new ArrayList<>(runnables.size());
+        if (runnables.size() <= 1) {
+            runnables.forEach(runnable -> timeoutIds.add(add(millisecondsFromNow, 0, false, runnable, group)));
+            return timeoutIds;
+        }
+        join(group, runnables.size());
+        final long now = nanoTime();
+        final long deadline = now + toNanos(millisecondsFromNow);
+        // Consecutive ids, so that the batch is spread evenly over the stripes
+        long id = timeoutIdCount.getAndAdd(runnables.size()) + 1;
+        final List<Timeout> batch = new ArrayList<>(runnables.size());
+        for (final Runnable runnable : runnables) {
+            final Timeout timeout = new Timeout(id, runnable, deadline, 0, false, group);
+            timeout.queuedForNanos = Math.max(now, deadline);
+            timeout.sharedHandle = true;
+            batch.add(timeout);
+            timeoutIds.add(new TimeoutId(id));
+            id++;
+        }
+        forEachInBatch(batch, timeout -> timeout.stripe.put(timeout.id, timeout));
+        // One queued task fires the whole batch. Members reset to an earlier
+        // deadline in the meantime have their own, and keep it.
+        final H handle = enqueue(Math.max(0, deadline - now), () -> batch.forEach(Timeout::run));
+        forEachInBatch(batch, timeout -> {
+            if (timeout.sharedHandle) {
+                timeout.handle = handle;
+            }
+        });
+        return timeoutIds;
+    }
+
+    // Apply an action to each of a batch of timeouts with consecutive ids,
+    // taking each stripe's lock once for all of the batch's timeouts in it.
+    private void forEachInBatch(final List<Timeout> batch, final Consumer<Timeout> action) {
+        for (int first = 0; first < Math.min(batch.size(), STRIPES); first++) {
+            synchronized (batch.get(first).stripe) {
+                for (int i = first; i < batch.size(); i += STRIPES) {
+                    action.accept(batch.get(i));
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean reset(final TimeoutId timeoutId, final long millisecondsFromNow) {
+        checkStarted("reset");
+        final long id = timeoutId.getValue();
+        final LongKeyedMap<Timeout> stripe = stripe(id);
+        synchronized (stripe) {
+            final Timeout timeout = stripe.get(id);
+            if (timeout == null) {
+                return false;
+            }
+            if (timeout.inCancelledGroup()) {
+                remove(id);
+                timeout.dequeueOwn();
+                return false;
+            }
+            final long now = nanoTime();
+            timeout.deadlineNanos = now + toNanos(millisecondsFromNow);
+            if (timeout.running) {
+                // Nothing is queued while a periodic handler runs; it is
+                // queued for this deadline when the handler finishes.
+                timeout.resetWhileRunning = true;
+            } else if (timeout.deadlineNanos < timeout.queuedForNanos) {
+                // Earlier than queued: the queued task would be too late.
+                timeout.dequeueOwn();
+                timeout.queue(now);
+            }
+            return true;
+        }
+    }
+
+    @Override
+    public boolean cancel(final TimeoutId timeoutId) {
+        checkStarted("cancel");
+        final long id = timeoutId.getValue();
+        synchronized (stripe(id)) {
+            final Timeout timeout = remove(id);
+            if (timeout == null) {
+                return false;
+            }
+            timeout.dequeueOwn();
+            return !timeout.inCancelledGroup();
+        }
+    }
+
+    // Takes constant time: the group's timeouts are removed as their queued
+    // tasks run, or by purgeCancelledTimeouts.
+    void cancelGroup(final TimeoutGroup group) {
+        liveCount.addAndGet(-group.markCancelled());
+    }
+
+    /**
+     * Remove the timeouts of cancelled groups, and their queued tasks, now
+     * rather than when their deadlines pass. This takes time proportional to
+     * the number of outstanding timeouts.
+     * @return the number of timeouts removed
+     */
+    public int purgeCancelledTimeouts() {
+        int count = 0;
+        for (final LongKeyedMap<Timeout> stripe : stripes) {
+            synchronized (stripe) {
+                final List<Timeout> purged = new ArrayList<>();
+                stripe.forEachValue(timeout -> {
+                    if (timeout.inCancelledGroup()) {
+                        purged.add(timeout);
+                    }
+                });
+                for (final Timeout timeout : purged) {
+                    remove(timeout.id);
+                    // A batch scheduled in a group is wholly in it, so its
+                    // shared queued task can go too.
+                    dequeueIfQueued(timeout);
+                }
+                count += purged.size();
+            }
+        }
+        return count;
+    }
+
+    // Called with the lock on the timeout's stripe held. A batch's timeouts
+    // briefly have no handle while it is being queued; its task then finds
+    // them removed.
+    private void dequeueIfQueued(final Timeout timeout) {
+        if (timeout.handle != null) {
+            dequeue(timeout.handle);
+        }
+    }
+
+    private void join(final TimeoutGroup group, final int count) {
+        if (group != null) {
+            group.join(count);
+        }
+        liveCount.addAndGet(count);
+    }
+
+    // Called with the lock on the id's stripe held
+    private Timeout remove(final long id) {
+        final Timeout timeout = stripe(id).remove(id);
+        if (timeout != null) {
+            leave(timeout);
+        }
+        return timeout;
+    }
+
+    private void leave(final Timeout timeout) {
+        if (timeout.group == null || timeout.group.leave()) {
+            liveCount.decrementAndGet();
+        }
+    }
+
+    private void checkStarted(final String operation) {
+        if (usageCount.get() == 0) {
+            throw new IllegalStateException("Cannot " + operation + " when scheduler is stopped");
+        }
+    }
+
+    /**
+     * @return the number of timeouts that have been scheduled, and have not
+     * yet fired (if one-shot) or been cancelled, by id or with their group
+     */
+    public int getLiveTimeoutCount() {
+        return liveCount.get();
+    }
+
+    /**
+     * @return a histogram of how long after their deadlines timeouts have
+     * fired, in nanoseconds
+     */
+    public LatencyHistogram getLatenessHistogram() {
+        return lateness;
+    }
+
+    /**
+     * @return a histogram of how long timeout handlers have taken to run,
+     * in nanoseconds
+     */
+    public LatencyHistogram getHandlerDurationHistogram() {
+        return handlerDuration;
+    }
+
+    @Override
+    public void start() {
+        usageCount.incrementAndGet();
+    }
+
+    @Override
+    public boolean isStarted() {
+        return usageCount.get() > 0;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (usageCount.get() == 0) {
+            throw new IllegalStateException("Cannot stop scheduler if it has not been started");
+        }
+
+        if (usageCount.decrementAndGet() == 0) {
+            for (final LongKeyedMap<Timeout> stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.forEachValue(timeout -> {
+                        dequeueIfQueued(timeout);
+                        leave(timeout);
+                    });
+                    stripe.clear();
+                }
+            }
+            shutdown();
+        }
+    }
+}
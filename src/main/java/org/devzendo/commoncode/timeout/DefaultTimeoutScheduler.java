@@ -1,16 +1,14 @@
 package org.devzendo.commoncode.timeout;
 
 import org.devzendo.commoncode.concurrency.DaemonThreadFactory;
+import org.devzendo.commoncode.time.Sleeper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Copyright (C) 2008-2016 Matt Gumbley, DevZendo.org http://devzendo.org
@@ -27,69 +25,85 @@ import java.util.concurrent.atomic.AtomicLong;
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
-public class DefaultTimeoutScheduler implements TimeoutScheduler {
+public class DefaultTimeoutScheduler extends AbstractTimeoutScheduler<ScheduledFuture<?>> {
     private static final Logger logger = LoggerFactory.getLogger(DefaultTimeoutScheduler.class);
 
-    private final AtomicInteger usageCount = new AtomicInteger(0);
-    private final Map<TimeoutId, ScheduledFuture<?>> activeTimeouts = new ConcurrentHashMap<>();
-    private final AtomicLong timeoutIdCount = new AtomicLong(0);
+    /**
+     * The default number of timer threads.
+     */
+    public static final int DEFAULT_TIMER_THREADS = 10;
+
     private final ScheduledThreadPoolExecutor executor;
+    private final Sleeper sleeper;
+    private final Executor handlerExecutor;
 
     public DefaultTimeoutScheduler() {
-        executor = new ScheduledThreadPoolExecutor(10, new DaemonThreadFactory("timeout-scheduler-thread-"));
+        this(new Sleeper());
+    }
+
+    /**
+     * Create a scheduler whose timeouts elapse at the rate of a given Sleeper's
+     * time, e.g. faster than reality, in tests.
+     * @param sleeper the sleeper whose time scale is used
+     */
+    public DefaultTimeoutScheduler(final Sleeper sleeper) {
+        this(sleeper, DEFAULT_TIMER_THREADS, null);
+    }
+
+    /**
+     * Create a scheduler with a given number of timer threads, which fire
+     * timeouts, and optionally a separate executor on which their handlers
+     * run, so that slow handlers do not delay other timeouts. On JDKs with
+     * virtual threads, a virtual-thread-per-task executor suits handlers that
+     * block.
+     * @param sleeper the sleeper whose time scale is used
+     * @param timerThreads the number of timer threads
+     * @param handlerExecutor the executor that runs handlers, or null to run
+     * them on the timer threads
+     */
+    public DefaultTimeoutScheduler(final Sleeper sleeper, final int timerThreads, final Executor handlerExecutor) {
+        super(logger);
+        if (timerThreads <= 0) {
+            throw new IllegalArgumentException("Number of timer threads " + timerThreads + " is not positive");
+        }
+        this.sleeper = sleeper;
+        this.handlerExecutor = handlerExecutor;
+        executor = new ScheduledThreadPoolExecutor(timerThreads, new DaemonThreadFactory("timeout-scheduler-thread-"));
         executor.setRemoveOnCancelPolicy(true);
         executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
     }
 
     @Override
-    public TimeoutId schedule(final long millisecondsFromNow, final Runnable runnable) {
-        if (usageCount.get() == 0) {
-            throw new IllegalStateException("Cannot schedule when scheduler is stopped");
-        }
-
-        final long thisTimeoutId = timeoutIdCount.incrementAndGet();
-        final TimeoutId timeoutId = new TimeoutId(thisTimeoutId);
-        final Runnable exceptionLoggingRunnable = () -> {
-            try {
-                runnable.run();
-            } catch (final Exception e) {
-                logger.warn("Timeout handler threw " + e.getClass().getSimpleName() + ": " + e.getMessage(), e);
-            }
-        };
-        final ScheduledFuture<?> schedule = executor.schedule(exceptionLoggingRunnable, millisecondsFromNow, TimeUnit.MILLISECONDS);
-        activeTimeouts.put(timeoutId, schedule);
-        return timeoutId;
+    public long nanoTime() {
+        return System.nanoTime();
     }
 
     @Override
-    public boolean cancel(final TimeoutId timeoutId) {
-        if (usageCount.get() == 0) {
-            throw new IllegalStateException("Cannot cancel when scheduler is stopped");
-        }
-
-        final ScheduledFuture<?> schedule = activeTimeouts.remove(timeoutId);
-        return schedule != null && schedule.cancel(false);
+    protected long toNanos(final long milliseconds) {
+        return TimeUnit.MILLISECONDS.toNanos(milliseconds) / sleeper.getTimesFaster();
     }
 
     @Override
-    public void start() {
-        usageCount.incrementAndGet();
+    protected ScheduledFuture<?> enqueue(final long delayNanos, final Runnable task) {
+        return executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
     }
 
     @Override
-    public boolean isStarted() {
-        return usageCount.get() > 0;
+    protected void dequeue(final ScheduledFuture<?> handle) {
+        handle.cancel(false);
     }
 
     @Override
-    public synchronized void stop() {
-        if (usageCount.get() == 0) {
-            throw new IllegalStateException("Cannot stop scheduler if it has not been started");
+    protected void dispatch(final Runnable handler) {
+        if (handlerExecutor == null) {
+            handler.run();
+        } else {
+            handlerExecutor.execute(handler);
         }
+    }
 
-        final int count = usageCount.decrementAndGet();
-        if (count == 0) {
-            executor.shutdown();
-        }
+    @Override
+    protected void shutdown() {
+        executor.shutdown();
     }
 }
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.timeout;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * A compact map from long keys to values, using open addressing with linear
+ * probing, so entries need no boxed keys or per-entry nodes. The tables grow
+ * and shrink with the number of entries, so memory is proportional to the
+ * number of live entries. Not thread-safe.
+ * @author matt
+ *
+ * @param <V> the value type
+ */
+final class LongKeyedMap<V> {
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] keys;
+    private Object[] values; // null marks an empty slot
+    private int size;
+
+    LongKeyedMap() {
+        allocate(MIN_CAPACITY);
+    }
+
+    private void allocate(final int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+    }
+
+    private int slot(final long key) {
+        // Fibonacci hashing spreads sequential keys across the table
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & (keys.length - 1);
+    }
+
+    /**
+     * @return the number of entries
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @param key the key
+     * @return the value for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V get(final long key) {
+        final int mask = keys.length - 1;
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V) values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param key the key
+     * @param value the (non-null) value
+     * @return the previous value for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    V put(final long key, final V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot store null values");
+        }
+        final int mask = keys.length - 1;
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                final V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size > (keys.length >> 1) + (keys.length >> 2)) { // load factor 0.75
+            resize(keys.length << 1);
+        }
+        return null;
+    }
+
+    /**
+     * @param key the key
+     * @return the value that was removed, or null
+     */
+    @SuppressWarnings("unchecked")
+    V remove(final long key) {
+        final int mask = keys.length - 1;
+        int i = slot(key);
+        for (; values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                final V removed = (V) values[i];
+                shiftBack(i);
+                if (--size < keys.length >> 3 && keys.length > MIN_CAPACITY) {
+                    resize(keys.length >> 1);
+                }
+                return removed;
+            }
+        }
+        return null;
+    }
+
+    // Close the gap at slot 'gap' by moving back any later entries in the
+    // probe run that could live there, so no tombstones are needed.
+    private void shiftBack(int gap) {
+        final int mask = keys.length - 1;
+        int i = gap;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == null) {
+                break;
+            }
+            final int home = slot(keys[i]);
+            // Move the entry if its home is not cyclically within (gap, i]
+            if (gap <= i ? (home <= gap || home > i) : (home <= gap && home > i)) {
+                keys[gap] = keys[i];
+                values[gap] = values[i];
+                gap = i;
+            }
+        }
+        values[gap] = null;
+    }
+
+    /**
+     * Remove all entries, shrinking the tables.
+     */
+    void clear() {
+        allocate(MIN_CAPACITY);
+        size = 0;
+    }
+
+    /**
+     * @param action called with each value
+     */
+    @SuppressWarnings("unchecked")
+    void forEachValue(final Consumer<? super V> action) {
+        for (final Object value : Arrays.copyOf(values, values.length)) {
+            if (value != null) {
+                action.accept((V) value);
+            }
+        }
+    }
+
+    private void resize(final int capacity) {
+        final long[] oldKeys = keys;
+        final Object[] oldValues = values;
+        allocate(capacity);
+        final int mask = capacity - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != null) {
+                int i = slot(oldKeys[j]);
+                while (values[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.timeout;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A group of timeouts with a common owner, e.g. the requests outstanding on a
+ * connection, that can all be cancelled with one call.
+ * <p>
+ * Cancelling the group takes constant time however many timeouts it holds:
+ * it marks the group cancelled, and its timeouts stop counting as live at
+ * once, but each is only removed from the scheduler when its queued task
+ * runs and finds its group cancelled, rather than firing. Until then, the
+ * scheduler's purgeCancelledTimeouts removes them, and their queued tasks,
+ * eagerly. Timeouts in the group can also be reset or cancelled by id, until
+ * the group is cancelled.
+ * @author matt
+ *
+ */
+public final class TimeoutGroup {
+    private final AbstractTimeoutScheduler<?> scheduler;
+    // the number of live timeouts in the group, or negative once cancelled
+    private final AtomicInteger live = new AtomicInteger(0);
+
+    TimeoutGroup(final AbstractTimeoutScheduler<?> scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Schedule a timeout in this group.
+     * @param millisecondsFromNow the deadline
+     * @param runnable the handler
+     * @return the id of the timeout
+     */
+    public TimeoutId schedule(final long millisecondsFromNow, final Runnable runnable) {
+        return scheduler.add(millisecondsFromNow, 0, false, runnable, this);
+    }
+
+    /**
+     * Schedule a batch of timeouts with the same deadline in this group.
+     * @param millisecondsFromNow the deadline of every timeout in the batch
+     * @param runnables the handlers, run in this order
+     * @return the ids of the timeouts, in the same order as their handlers
+     */
+    public List<TimeoutId> scheduleAll(final long millisecondsFromNow, final List<? extends Runnable> runnables) {
+        return scheduler.addAll(millisecondsFromNow, runnables, this);
+    }
+
+    /**
+     * Cancel all the timeouts in this group that have not yet fired. No more
+     * can be scheduled in it.
+     */
+    public void cancel() {
+        scheduler.cancelGroup(this);
+    }
+
+    // Count timeouts being added to the group
+    void join(final int count) {
+        while (true) {
+            final int current = live.get();
+            if (current < 0) {
+                throw new IllegalStateException("Cannot schedule in a cancelled group");
+            }
+            if (live.compareAndSet(current, current + count)) {
+                return;
+            }
+        }
+    }
+
+    // Stop counting a timeout that has fired, or been cancelled by id;
+    // returns false if the group was cancelled first, which stopped counting
+    // it then.
+    boolean leave() {
+        while (true) {
+            final int current = live.get();
+            if (current < 0) {
+                return false;
+            }
+            if (live.compareAndSet(current, current - 1)) {
+                return true;
+            }
+        }
+    }
+
+    // Returns the number of timeouts that were live, or 0 if already cancelled
+    int markCancelled() {
+        return Math.max(0, live.getAndSet(Integer.MIN_VALUE));
+    }
+
+    /**
+     * @return true iff this group has been cancelled
+     */
+    public boolean isCancelled() {
+        return live.get() < 0;
+    }
+}
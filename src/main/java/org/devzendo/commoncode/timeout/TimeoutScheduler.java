@@ -14,11 +14,172 @@ package org.devzendo.commoncode.timeout;/*
  * limitations under the License.
  */
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 public interface TimeoutScheduler {
     TimeoutId schedule(long millisecondsFromNow, Runnable runnable);
 
+    /**
+     * Schedule a timeout at an absolute deadline, e.g. one computed once for
+     * a request and shared by each of its stages.
+     * @param deadlineNanos the deadline, in terms of nanoTime()
+     * @param runnable the handler
+     * @return the id of the timeout
+     */
+    default TimeoutId scheduleAtNanos(final long deadlineNanos, final Runnable runnable) {
+        final long remainingNanos = Math.max(0, deadlineNanos - nanoTime());
+        // Round up, so the timeout never fires before its deadline.
+        return schedule(TimeUnit.NANOSECONDS.toMillis(remainingNanos + TimeUnit.MILLISECONDS.toNanos(1) - 1), runnable);
+    }
+
+    /**
+     * @return the current time of this scheduler's clock, in nanoseconds,
+     * for computing deadlines for scheduleAtNanos
+     */
+    default long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Fail a future with a TimeoutException if it has not completed within a
+     * given time. The timeout is cancelled as soon as the future completes.
+     * @param future the future
+     * @param millisecondsFromNow the time allowed
+     * @param <T> the type of the future's result
+     * @return the future
+     */
+    default <T> CompletableFuture<T> orTimeout(final CompletableFuture<T> future, final long millisecondsFromNow) {
+        if (future.isDone()) {
+            return future;
+        }
+        final TimeoutId timeoutId = schedule(millisecondsFromNow,
+                () -> future.completeExceptionally(new TimeoutException("Timed out after " + millisecondsFromNow + "ms")));
+        // Disarm the timeout as soon as the future completes, however it does.
+        future.whenComplete((result, throwable) -> {
+            if (isStarted()) {
+                cancel(timeoutId);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Obtain a future that completes as a stage does, or fails with a
+     * TimeoutException if the stage has not completed within a given time.
+     * The stage itself is not affected. The timeout is cancelled as soon as
+     * the stage completes.
+     * @param stage the stage
+     * @param millisecondsFromNow the time allowed
+     * @param <T> the type of the stage's result
+     * @return the new future
+     */
+    default <T> CompletableFuture<T> withTimeout(final CompletionStage<T> stage, final long millisecondsFromNow) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        stage.whenComplete((value, throwable) -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        });
+        return orTimeout(result, millisecondsFromNow);
+    }
+
+    /**
+     * Schedule a batch of timeouts with the same deadline, queueing one task
+     * that fires them all. By default, each is scheduled in turn.
+     * @param millisecondsFromNow the deadline of every timeout in the batch
+     * @param runnables the handlers, run in this order
+     * @return the ids of the timeouts, in the same order as their handlers
+     */
+    default List<TimeoutId> scheduleAll(final long millisecondsFromNow, final List<? extends Runnable> runnables) {
+        final List<TimeoutId> timeoutIds = new ArrayList<>(runnables.size());
+        for (final Runnable runnable : runnables) {
+            timeoutIds.add(schedule(millisecondsFromNow, runnable));
+        }
+        return timeoutIds;
+    }
+
+    /**
+     * Create a group, under which many timeouts can be scheduled, then all
+     * cancelled in one call, e.g. the requests outstanding on a connection
+     * that has closed.
+     * @return a new group
+     * @throws UnsupportedOperationException if this scheduler has no groups
+     */
+    default TimeoutGroup createGroup() {
+        throw new UnsupportedOperationException("This scheduler does not support groups");
+    }
+
+    /**
+     * Run a task repeatedly, first after an initial delay, then every period
+     * after that first deadline, until cancelled. Runs never overlap: a late
+     * run is followed immediately by any that have fallen due.
+     * @param initialMilliseconds the delay before the first run
+     * @param periodMilliseconds the period between deadlines
+     * @param runnable the task
+     * @return the id of the periodic timeout, used to cancel or reset it
+     * @throws UnsupportedOperationException if this scheduler has no
+     * periodic timeouts
+     */
+    default TimeoutId scheduleAtFixedRate(final long initialMilliseconds, final long periodMilliseconds, final Runnable runnable) {
+        throw new UnsupportedOperationException("This scheduler does not support periodic timeouts");
+    }
+
+    /**
+     * Run a task repeatedly, first after an initial delay, then a fixed delay
+     * after each run finishes, until cancelled.
+     * @param initialMilliseconds the delay before the first run
+     * @param delayMilliseconds the delay between the end of a run and the
+     * start of the next
+     * @param runnable the task
+     * @return the id of the periodic timeout, used to cancel or reset it
+     * @throws UnsupportedOperationException if this scheduler has no
+     * periodic timeouts
+     */
+    default TimeoutId scheduleWithFixedDelay(final long initialMilliseconds, final long delayMilliseconds, final Runnable runnable) {
+        throw new UnsupportedOperationException("This scheduler does not support periodic timeouts");
+    }
+
+    /**
+     * Move the deadline of an outstanding timeout to a given time from now,
+     * keeping its id. This is cheap when the deadline moves later, as for a
+     * keep-alive that is reset on every packet: the new deadline is only
+     * checked when the old one is reached.
+     * @param timeoutId the timeout
+     * @param millisecondsFromNow the new deadline
+     * @return true iff the timeout was outstanding
+     * @throws UnsupportedOperationException if this scheduler cannot reset
+     * timeouts
+     */
+    default boolean reset(final TimeoutId timeoutId, final long millisecondsFromNow) {
+        throw new UnsupportedOperationException("This scheduler does not support resetting timeouts");
+    }
+
     boolean cancel(TimeoutId timeoutId);
 
+    /**
+     * Cancel a batch of timeouts. By default, each is cancelled in turn.
+     * @param timeoutIds the timeouts
+     * @return the number of those that were outstanding, and now will not
+     * fire
+     */
+    default int cancelAll(final Collection<TimeoutId> timeoutIds) {
+        int cancelled = 0;
+        for (final TimeoutId timeoutId : timeoutIds) {
+            if (cancel(timeoutId)) {
+                cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
     void start();
 
     boolean isStarted();
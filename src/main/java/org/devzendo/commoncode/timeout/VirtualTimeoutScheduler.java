@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.timeout;
+
+import org.devzendo.commoncode.time.VirtualSleeper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A TimeoutScheduler whose timeouts elapse in the virtual time of a
+ * VirtualSleeper. Timeout handlers run on the thread that advances the
+ * sleeper's time, in order of expiry, interleaved deterministically with the
+ * threads sleeping on the same sleeper.
+ * @author matt
+ *
+ */
+public class VirtualTimeoutScheduler extends AbstractTimeoutScheduler<VirtualSleeper.Event> {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualTimeoutScheduler.class);
+
+    private final VirtualSleeper sleeper;
+
+    /**
+     * @param sleeper the sleeper whose virtual time drives the timeouts
+     */
+    public VirtualTimeoutScheduler(final VirtualSleeper sleeper) {
+        super(logger);
+        this.sleeper = sleeper;
+    }
+
+    @Override
+    public long nanoTime() {
+        return sleeper.nanoTime();
+    }
+
+    @Override
+    protected long toNanos(final long milliseconds) {
+        return TimeUnit.MILLISECONDS.toNanos(milliseconds);
+    }
+
+    @Override
+    protected VirtualSleeper.Event enqueue(final long delayNanos, final Runnable task) {
+        return sleeper.schedule(delayNanos, task);
+    }
+
+    @Override
+    protected void dequeue(final VirtualSleeper.Event handle) {
+        sleeper.cancel(handle);
+    }
+
+    @Override
+    protected void shutdown() {
+        // nothing to release; time belongs to the sleeper
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for CountingInputStream
+ *
+ * @author matt
+ *
+ */
+public final class TestCountingInputStream {
+    @Test
+    public void countsBytesReadAndSkippedIntoASharedCounter() throws IOException {
+        final LongAdder count = new LongAdder();
+        final CountingInputStream one = new CountingInputStream(new ByteArrayInputStream(new byte[10]), count);
+        final CountingInputStream two = new CountingInputStream(new ByteArrayInputStream(new byte[5]), count);
+        assertThat(one.read()).isEqualTo(0);
+        assertThat(one.read(new byte[4], 0, 4)).isEqualTo(4);
+        assertThat(one.skip(3)).isEqualTo(3);
+        assertThat(two.read(new byte[100], 0, 100)).isEqualTo(5);
+        assertThat(count.sum()).isEqualTo(13);
+        assertThat(two.read()).isEqualTo(-1);
+        assertThat(two.read(new byte[1], 0, 1)).isEqualTo(-1);
+        assertThat(count.sum()).isEqualTo(13);
+        assertThat(one.markSupported()).isFalse();
+    }
+
+    @Test
+    public void endsWhenReadToItsEndOrClosed() throws IOException {
+        final CountingInputStream read = new CountingInputStream(new ByteArrayInputStream(new byte[2]), new LongAdder());
+        assertThat(read.read(new byte[2], 0, 2)).isEqualTo(2);
+        assertThat(read.getEnded()).isNotDone();
+        assertThat(read.read()).isEqualTo(-1);
+        assertThat(read.getEnded()).isDone();
+
+        final CountingInputStream closed = new CountingInputStream(new ByteArrayInputStream(new byte[2]), new LongAdder());
+        closed.close();
+        assertThat(closed.getEnded()).isDone();
+    }
+}
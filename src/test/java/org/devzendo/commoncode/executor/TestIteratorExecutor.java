@@ -23,8 +23,17 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -121,4 +130,213 @@ public final class TestIteratorExecutor {
         assertThat(list).hasSize(1);
         assertThat(list.get(0)).isEqualTo("hello");
     }
+
+    @Test
+    public void exhaustedIteratorIsClosedAndStaysFinished() {
+        final long leaks = Executor.getLeakCount();
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"echo", "hello"});
+        assertThat(ie.hasNext()).isTrue();
+        assertThat(ie.hasNext()).isFalse();
+        assertThat(ie.hasNext()).isFalse();
+        assertThat(ie.getIOException()).isNull();
+        ie.close(); // again; no effect
+        assertThat(Executor.getLeakCount()).isEqualTo(leaks);
+    }
+
+    @Test(timeout = 10000)
+    public void closingEarlyWithTryWithResourcesDestroysTheProcess() {
+        final Process process;
+        try (IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c", "echo started; sleep 30"})) {
+            assertThat(ie.hasNext()).isTrue();
+            assertThat(ie.next()).isEqualTo("started");
+            process = ie.getProcess();
+        }
+        while (process.isAlive()) {
+            Thread.yield();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void unclosedExecutorIsReportedAndItsProcessDestroyed() throws InterruptedException {
+        Executor.setLeakTracking(true);
+        try {
+            final long leaks = Executor.getLeakCount();
+            final Process process = startAndAbandon();
+            while (Executor.getLeakCount() == leaks) {
+                System.gc();
+                Thread.sleep(50);
+            }
+            while (process.isAlive()) {
+                Thread.sleep(10);
+            }
+        } finally {
+            Executor.setLeakTracking(false);
+        }
+    }
+
+    private Process startAndAbandon() {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c", "echo started; sleep 30"});
+        assertThat(ie.hasNext()).isTrue();
+        return ie.getProcess();
+    }
+
+    @Test(timeout = 10000)
+    public void closeDoesNotWaitForeverForAChannelHeldOpenByAnEscapedProcess() {
+        // the subshell's sleep is orphaned, so is not destroyed with the shell
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c", "(sleep 3 &); echo started; sleep 30"});
+        ie.setCloseTimeout(200);
+        assertThat(ie.hasNext()).isTrue();
+        final long start = System.nanoTime();
+        ie.close();
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+        while (ie.getProcess().isAlive()) {
+            Thread.yield();
+        }
+    }
+
+    @Test(timeout = 20000)
+    public void boundedCaptureKeepsTheLastOtherLinesAndSpillsThemAll() throws IOException {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c",
+                "for i in $(seq 1 1000); do echo line$i >&2; done; echo done"});
+        ie.captureOtherLines(10, 1024, true);
+        final File spillFile = ie.getOtherLinesSpillFile();
+        try {
+            while (ie.hasNext()) {
+                assertThat(ie.next()).isEqualTo("done");
+            }
+            final List<String> lines = ie.getOtherLines();
+            assertThat(lines).hasSize(10);
+            assertThat(lines.get(0)).isEqualTo("line991");
+            assertThat(lines.get(9)).isEqualTo("line1000");
+            assertThat(ie.getOtherLinesDroppedCount()).isEqualTo(990);
+            final List<String> spilled = Files.readAllLines(spillFile.toPath(), StandardCharsets.UTF_8);
+            assertThat(spilled).hasSize(1000);
+            assertThat(spilled.get(0)).isEqualTo("line1");
+        } finally {
+            assertThat(ie.deleteOtherLinesSpillFile()).isTrue();
+        }
+        assertThat(spillFile).doesNotExist();
+    }
+
+    @Test
+    public void capturingOtherLinesAgainDeletesThePreviousSpillFile() throws IOException {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"true"});
+        ie.captureOtherLines(10, 1024, true);
+        final File first = ie.getOtherLinesSpillFile();
+        ie.captureOtherLines(10, 1024, true);
+        final File second = ie.getOtherLinesSpillFile();
+        try {
+            assertThat(first).doesNotExist();
+            assertThat(second).exists();
+        } finally {
+            assertThat(ie.deleteOtherLinesSpillFile()).isTrue();
+        }
+    }
+
+    @Test
+    public void otherLinesAreUnboundedByDefault() {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c",
+                "for i in $(seq 1 1000); do echo line$i >&2; done"});
+        while (ie.hasNext()) {
+            ie.next();
+        }
+        assertThat(ie.getOtherLines()).hasSize(1000);
+        assertThat(ie.getOtherLinesDroppedCount()).isZero();
+        assertThat(ie.getOtherLinesSpillFile()).isNull();
+    }
+
+    @Test(timeout = 10000)
+    public void completionReportsUsageOnceTheProcessHasFinished() throws Exception {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c", "echo hello; echo err >&2; exit 3"});
+        assertThat(ie.getCompletion()).isNull();
+        assertThat(ie.getUsage()).isNull();
+        while (ie.hasNext()) {
+            assertThat(ie.next()).isEqualTo("hello");
+        }
+        final ProcessUsage usage = ie.getCompletion().get(5, TimeUnit.SECONDS);
+        assertThat(usage.getPid()).isEqualTo(ie.getProcess().pid());
+        assertThat(usage.getExitValue()).isEqualTo(3);
+        assertThat(usage.getOutputBytes()).isEqualTo(10); // "hello\n" and "err\n"
+        assertThat(usage.getWallNanos()).isPositive();
+        assertThat(ie.getUsage()).isSameAs(usage);
+    }
+
+    @Test(timeout = 10000)
+    public void executeAsyncClosesAndCallsBackWithoutWaiting() throws Exception {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c",
+                "i=0; while [ $i -lt 100000 ]; do i=$((i+1)); done; echo done >&2; exec 2>&-; sleep 0.2; exit 2"});
+        final AtomicReference<ProcessUsage> calledBack = new AtomicReference<>();
+        final CompletableFuture<ProcessUsage> future = ie.executeAsync(calledBack::set);
+        final ProcessUsage usage = future.get(5, TimeUnit.SECONDS);
+        assertThat(calledBack.get()).isSameAs(usage);
+        assertThat(usage.getExitValue()).isEqualTo(2);
+        assertThat(ie.getExitValue()).isEqualTo(2);
+        assertThat(usage.getCpuNanos()).isPositive(); // observed when Standard Error was closed
+        assertThat(usage.getWallNanos()).isGreaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(200));
+        assertThat(ie.getOtherLines()).containsExactly("done");
+    }
+
+    @Test(timeout = 10000)
+    public void executeAsyncDiscardsOutputBeyondThePipeBuffer() throws Exception {
+        // well over 64KiB, which would fill the pipe if not read
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c", "head -c 200000 /dev/zero; echo err >&2"});
+        final ProcessUsage usage = ie.executeAsync().get(5, TimeUnit.SECONDS);
+        assertThat(usage.getExitValue()).isZero();
+        assertThat(usage.getOutputBytes()).isEqualTo(4); // only "err\n" was read
+        assertThat(ie.getOtherLines()).containsExactly("err");
+    }
+
+    @Test(timeout = 10000)
+    public void executeAsyncCanCountTheOutputItDiscards() throws Exception {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c", "head -c 200000 /dev/zero; echo err >&2"});
+        ie.countDiscardedOutput();
+        final ProcessUsage usage = ie.executeAsync().get(5, TimeUnit.SECONDS);
+        assertThat(usage.getExitValue()).isZero();
+        assertThat(usage.getOutputBytes()).isEqualTo(200004);
+        assertThat(ie.getOtherLines()).containsExactly("err");
+    }
+
+    @Test(timeout = 10000)
+    public void executeAsyncCanDiscardStandardError() throws Exception {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c", "head -c 200000 /dev/zero >&2; echo out"});
+        ie.useStdErr();
+        final ProcessUsage usage = ie.executeAsync().get(5, TimeUnit.SECONDS);
+        assertThat(usage.getExitValue()).isZero();
+        assertThat(usage.getOutputBytes()).isEqualTo(4);
+        assertThat(ie.getOtherLines()).containsExactly("out");
+    }
+
+    @Test(timeout = 30000)
+    public void manyProcessesCanBeInFlightAsynchronously() throws IOException, InterruptedException, ExecutionException, TimeoutException {
+        final List<CompletableFuture<ProcessUsage>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(new IteratorExecutor(new String[] {"sh", "-c", "exit " + (i % 5)}).executeAsync());
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).get(20, TimeUnit.SECONDS);
+        for (int i = 0; i < 50; i++) {
+            assertThat(futures.get(i).get().getExitValue()).isEqualTo(i % 5);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void usageIsSampledWhileTheProcessRuns() throws Exception {
+        final IteratorExecutor ie = new IteratorExecutor(new String[] {"sh", "-c",
+                "i=0; while [ $i -lt 100000 ]; do i=$((i+1)); done; echo done"});
+        assertThat(ie.getUsageSamples()).isEmpty();
+        ie.sampleUsage(10, 1000);
+        while (ie.hasNext()) {
+            assertThat(ie.next()).isEqualTo("done");
+        }
+        final ProcessUsage usage = ie.getCompletion().get(5, TimeUnit.SECONDS);
+        final List<ProcessSample> samples = ie.getUsageSamples();
+        assertThat(samples).isNotEmpty();
+        final ProcessSample last = samples.get(samples.size() - 1);
+        assertThat(usage.getCpuNanos()).isGreaterThanOrEqualTo(last.getCpuNanos());
+        if (new File("/proc/self/io").exists()) {
+            // (the final sample may catch it exiting, with its memory gone)
+            assertThat(samples).anyMatch(sample -> sample.getResidentBytes() > 0);
+        }
+        Thread.sleep(50);
+        assertThat(ie.getUsageSamples()).hasSize(samples.size()); // sampling stopped at exit
+    }
 }
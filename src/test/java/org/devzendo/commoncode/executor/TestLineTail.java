@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for LineTail
+ *
+ * @author matt
+ *
+ */
+public final class TestLineTail {
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    @Test
+    public void keepsTheLastLinesWithinTheLineLimit() throws IOException {
+        final LineTail tail = new LineTail(3, Long.MAX_VALUE, null);
+        for (int i = 1; i <= 5; i++) {
+            tail.add("line" + i);
+        }
+        assertThat(tail.getLines()).containsExactly("line3", "line4", "line5");
+        assertThat(tail.getDroppedCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void keepsTheLastLinesWithinTheByteLimit() throws IOException {
+        final LineTail tail = new LineTail(100, 10, null);
+        tail.add("aaaa");
+        tail.add("bbbb");
+        tail.add("cccc");
+        assertThat(tail.getLines()).containsExactly("bbbb", "cccc");
+        assertThat(tail.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void anOverlongLineIsTruncatedAndKeptAlone() throws IOException {
+        final LineTail tail = new LineTail(100, 4, null);
+        tail.add("ab");
+        tail.add("abcdefgh");
+        assertThat(tail.getLines()).containsExactly("abcd");
+    }
+
+    @Test
+    public void linesAreReadWithEachLineEnding() throws IOException {
+        final LineTail tail = new LineTail(100, 100, null);
+        tail.readFrom(new StringReader("one\ntwo\r\nthree\rfour\n\nfive"));
+        assertThat(tail.getLines()).containsExactly("one", "two", "three", "four", "", "five");
+    }
+
+    @Test
+    public void anOverlongLineIsTruncatedAsItIsReadButSpilledWhole() throws IOException {
+        final File spill = tempDir.newFile("spill.txt");
+        final LineTail tail = new LineTail(100, 10, spill);
+        final StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            longLine.append((char) ('a' + i % 26));
+        }
+        tail.readFrom(new StringReader("short\n" + longLine + "\n"));
+        tail.closeSpill();
+        assertThat(tail.getLines()).containsExactly("abcdefghij");
+        assertThat(Files.readAllLines(spill.toPath(), StandardCharsets.UTF_8))
+                .containsExactly("short", longLine.toString());
+    }
+
+    @Test
+    public void truncationNeverSplitsACharacter() {
+        assertThat(LineTail.truncate("abcdef", 4)).isEqualTo("abcd");
+        assertThat(LineTail.truncate("aéé", 4)).isEqualTo("aé");
+        assertThat(LineTail.truncate("a😀", 4)).isEqualTo("a");
+        assertThat(LineTail.truncate("a😀", 5)).isEqualTo("a😀");
+    }
+
+    @Test
+    public void spillCanBeDeleted() throws IOException {
+        final File spill = tempDir.newFile("spill.txt");
+        final LineTail tail = new LineTail(1, 100, spill);
+        tail.add("one");
+        assertThat(tail.deleteSpill()).isTrue();
+        assertThat(spill).doesNotExist();
+        tail.add("two");
+        assertThat(spill).doesNotExist();
+        assertThat(tail.getLines()).containsExactly("two");
+    }
+
+    @Test
+    public void linesAreCopied() throws IOException {
+        final LineTail tail = new LineTail(100, 100, null);
+        tail.add("one");
+        tail.getLines().clear();
+        assertThat(tail.getLines()).containsExactly("one");
+    }
+
+    @Test
+    public void allLinesAreSpilled() throws IOException {
+        final File spill = tempDir.newFile("spill.txt");
+        final LineTail tail = new LineTail(1, 100, spill);
+        tail.add("one");
+        tail.add("two");
+        tail.add("été");
+        tail.closeSpill();
+        assertThat(tail.getSpillFile()).isEqualTo(spill);
+        assertThat(Files.readAllLines(spill.toPath(), StandardCharsets.UTF_8)).containsExactly("one", "two", "été");
+        assertThat(tail.getLines()).containsExactly("été");
+    }
+
+    @Test
+    public void utf8LengthCountsEncodedBytes() {
+        assertThat(LineTail.utf8Length("abc")).isEqualTo(3);
+        assertThat(LineTail.utf8Length("é")).isEqualTo(2);
+        assertThat(LineTail.utf8Length("€")).isEqualTo(3);
+        assertThat(LineTail.utf8Length("😀")).isEqualTo(4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void limitsMustBePositive() throws IOException {
+        new LineTail(0, 10, null);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import org.devzendo.commoncode.logging.LoggingUnittestHelper;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for PipelineExecutor
+ *
+ * @author matt
+ *
+ */
+public final class TestPipelineExecutor {
+    @Rule
+    public final TemporaryFolder tempDir = new TemporaryFolder();
+
+    /**
+     *
+     */
+    @BeforeClass
+    public static void setupLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    @Test(timeout = 10000)
+    public void outputFlowsThroughAllStages() throws IOException, InterruptedException {
+        try (PipelineExecutor pe = new PipelineExecutor(
+                new String[] {"seq", "1", "100"},
+                new String[] {"grep", "5"},
+                new String[] {"wc", "-l"})) {
+            pe.execute();
+            assertThat(pe.getReader().readLine().trim()).isEqualTo("19");
+            assertThat(pe.waitFor()).containsExactly(0, 0, 0);
+            assertThat(pe.getExitValue()).isZero();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void closeDoesNotWaitForeverForAStageHeldOpenByAnEscapedProcess() throws IOException {
+        final PipelineExecutor pe = new PipelineExecutor(
+                new String[] {"sh", "-c", "(sleep 3 &); echo started; sleep 30"},
+                new String[] {"cat"});
+        pe.setCloseTimeout(200);
+        pe.execute();
+        assertThat(pe.getReader().readLine()).isEqualTo("started");
+        final long start = System.nanoTime();
+        pe.close();
+        assertThat(System.nanoTime() - start).isLessThan(TimeUnit.SECONDS.toNanos(2));
+    }
+
+    @Test(timeout = 10000)
+    public void inputIsWrittenToTheFirstStage() throws IOException, InterruptedException {
+        try (PipelineExecutor pe = new PipelineExecutor(
+                new String[] {"tr", "a-z", "A-Z"},
+                new String[] {"rev"})) {
+            pe.execute();
+            try (OutputStream os = pe.getOutputStream()) {
+                os.write("hello\n".getBytes(StandardCharsets.UTF_8));
+            }
+            assertThat(pe.getReader().readLine()).isEqualTo("OLLEH");
+            pe.waitFor();
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void inputAndOutputCanBeRedirectedToFiles() throws IOException {
+        final File in = tempDir.newFile("in.txt");
+        final File out = new File(tempDir.getRoot(), "out.txt");
+        Files.write(in.toPath(), "b\na\nc\n".getBytes(StandardCharsets.UTF_8));
+        final PipelineExecutor pe = new PipelineExecutor(new String[] {"sort"}, new String[] {"head", "-2"});
+        pe.redirectInput(in);
+        pe.redirectOutput(out);
+        assertThat(pe.executeAndWaitFor()).isZero();
+        assertThat(Files.readAllLines(out.toPath(), StandardCharsets.UTF_8)).containsExactly("a", "b");
+    }
+
+    @Test(timeout = 10000)
+    public void waitingForAPipelineDiscardsOutputBeyondThePipeBuffer() throws IOException {
+        // well over 64KiB, which would fill the pipe if not read
+        final PipelineExecutor pe = new PipelineExecutor(new String[] {"seq", "1", "200000"}, new String[] {"cat"});
+        assertThat(pe.executeAndWaitFor()).isZero();
+        assertThat(pe.getExitValues()).containsExactly(0, 0);
+    }
+
+    @Test(timeout = 10000)
+    public void waitingForAPipelineEndsItsInput() throws IOException {
+        final PipelineExecutor pe = new PipelineExecutor(new String[] {"cat"}, new String[] {"wc", "-c"});
+        assertThat(pe.executeAndWaitFor()).isZero();
+    }
+
+    @Test(timeout = 10000)
+    public void aggregateExitValueIsThatOfTheLastFailingStage() throws IOException {
+        final PipelineExecutor pe = new PipelineExecutor(
+                new String[] {"sh", "-c", "echo oops >&2; exit 3"},
+                new String[] {"sh", "-c", "cat; exit 4"},
+                new String[] {"cat"});
+        assertThat(pe.executeAndWaitFor()).isEqualTo(4);
+        assertThat(pe.getExitValues()).containsExactly(3, 4, 0);
+        final List<String> errors = pe.getOtherLines(0);
+        assertThat(errors).containsExactly("oops");
+        assertThat(pe.getOtherLines(1)).isEmpty();
+    }
+
+    @Test(timeout = 10000)
+    public void closingEarlyDestroysRunningStages() throws IOException {
+        final List<Process> processes;
+        try (PipelineExecutor pe = new PipelineExecutor(new String[] {"sleep", "30"}, new String[] {"cat"})) {
+            processes = pe.execute();
+        }
+        for (final Process process : processes) {
+            while (process.isAlive()) {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyPipelineIsRejected() {
+        new PipelineExecutor();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void cannotBeChangedOnceExecuted() throws IOException {
+        try (PipelineExecutor pe = new PipelineExecutor(new String[] {"true"})) {
+            pe.execute();
+            pe.redirectOutput(new File("x"));
+        }
+    }
+}
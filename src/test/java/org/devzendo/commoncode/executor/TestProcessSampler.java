@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.executor;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests for ProcessSampler
+ *
+ * @author matt
+ *
+ */
+public final class TestProcessSampler {
+    @Test
+    public void residentBytesAreParsedFromStatus() {
+        final List<String> status = Arrays.asList("Name:\tsleep", "VmPeak:\t    8000 kB", "VmRSS:\t    1234 kB", "Threads:\t1");
+        assertThat(ProcessSampler.parseResidentBytes(status)).isEqualTo(1234 * 1024);
+        assertThat(ProcessSampler.parseResidentBytes(Collections.singletonList("Name:\tzombie"))).isEqualTo(-1);
+        assertThat(ProcessSampler.parseResidentBytes(Collections.singletonList("VmRSS:\tlots kB"))).isEqualTo(-1);
+    }
+
+    @Test
+    public void countersAreParsedFromIo() {
+        final List<String> io = Arrays.asList("rchar: 4096", "wchar: 12", "syscr: 3", "read_bytes: 0");
+        assertThat(ProcessSampler.parseCounter(io, "rchar")).isEqualTo(4096);
+        assertThat(ProcessSampler.parseCounter(io, "wchar")).isEqualTo(12);
+        assertThat(ProcessSampler.parseCounter(io, "write_bytes")).isEqualTo(-1);
+    }
+
+    @Test(timeout = 10000)
+    public void runningProcessIsSampledUntilStoppedKeepingTheMostRecent() throws IOException, InterruptedException {
+        assumeTrue(new File("/proc/self/status").exists());
+        final Process process = new ProcessBuilder("sleep", "30").start();
+        try {
+            final ProcessSampler sampler = new ProcessSampler(10, 3);
+            sampler.start(process, System.nanoTime());
+            while (sampler.getSamples().size() < 3) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(50);
+            sampler.stop();
+            final List<ProcessSample> samples = sampler.getSamples();
+            assertThat(samples).hasSize(3);
+            assertThat(samples.get(0).getElapsedNanos()).isGreaterThan(0);
+            assertThat(samples.get(2).getElapsedNanos()).isGreaterThan(samples.get(0).getElapsedNanos());
+            assertThat(samples.get(2).getResidentBytes()).isPositive();
+            assertThat(samples.get(2).getReadBytes()).isNotNegative();
+            Thread.sleep(50);
+            assertThat(sampler.getSamples()).isEqualTo(samples);
+        } finally {
+            process.destroy();
+        }
+    }
+
+    @Test
+    public void exitedProcessIsNotSampled() throws IOException, InterruptedException {
+        final Process process = new ProcessBuilder("true").start();
+        process.waitFor();
+        final ProcessSampler sampler = new ProcessSampler(1000, 10);
+        sampler.start(process, System.nanoTime());
+        sampler.stop();
+        assertThat(sampler.sample()).isNull();
+        assertThat(sampler.getLastCpuNanos()).isEqualTo(-1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void intervalMustBePositive() {
+        new ProcessSampler(0, 10);
+    }
+}
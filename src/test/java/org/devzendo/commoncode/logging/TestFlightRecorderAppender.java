@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.builder.api.*;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.devzendo.commoncode.concurrency.ThreadUtils.waitNoInterruption;
+
+
+/**
+ * Does the flight recorder dump its recorded events when triggered?
+ *
+ * @author matt
+ *
+ */
+public final class TestFlightRecorderAppender {
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private LoggerContext context;
+
+    private void setupLogging(final File signalFile) {
+        setupLogging(signalFile, null);
+    }
+
+    // If targetLevel is non-null, the target is also sent events at that level
+    // directly, as the console is; otherwise it only sees dumps.
+    private void setupLogging(final File signalFile, final Level targetLevel) {
+        ConfigurationBuilder<BuiltConfiguration> builder =
+                ConfigurationBuilderFactory.newConfigurationBuilder();
+
+        builder.add(builder.newAppender("CAPTURE", "Capturing"));
+
+        AppenderComponentBuilder recorder = builder.newAppender("RECORDER", "FlightRecorder")
+                .addAttribute("capacity", 8)
+                .addAttribute("target", "CAPTURE")
+                .addAttribute("signalPollMillis", 50);
+        if (signalFile != null) {
+            recorder.addAttribute("signalFile", signalFile.getPath());
+        }
+        if (targetLevel != null) {
+            recorder.addAttribute("targetLevel", targetLevel.name());
+        }
+        builder.add(recorder);
+
+        RootLoggerComponentBuilder rootLogger = builder.newRootLogger(Level.DEBUG)
+                .add(builder.newAppenderRef("RECORDER"));
+        if (targetLevel != null) {
+            rootLogger.add(builder.newAppenderRef("CAPTURE").addAttribute("level", targetLevel));
+        }
+        builder.add(rootLogger);
+
+        context = new LoggerContext("FlightRecorderTestContext");
+        context.start(builder.build());
+    }
+
+    @After
+    public void teardownLogging() {
+        if (context != null) {
+            context.stop();
+        }
+    }
+
+    private List<LogEvent> dumped() {
+        return context.getConfiguration().<CapturingAppender>getAppender("CAPTURE").getEvents();
+    }
+
+    @Test
+    public void errorTriggersDumpOfEventsSinceLastDump() {
+        setupLogging(null);
+        final Logger logger = context.getLogger(this.getClass());
+        logger.debug("one");
+        logger.debug("two");
+        assertThat(dumped()).isEmpty();
+
+        logger.error("three");
+        assertThat(dumped()).extracting(e -> e.getMessage().getFormattedMessage())
+                .containsExactly("Flight recorder dump of 3 events begins", "one", "two", "three", "Flight recorder dump ends");
+
+        context.getConfiguration().<CapturingAppender>getAppender("CAPTURE").clear();
+        logger.debug("four");
+        final FlightRecorderAppender recorder = context.getConfiguration().getAppender("RECORDER");
+        assertThat(recorder.dump()).isEqualTo(1);
+        assertThat(dumped()).extracting(e -> e.getMessage().getFormattedMessage())
+                .containsExactly("Flight recorder dump of 1 events begins", "four", "Flight recorder dump ends");
+    }
+
+    @Test(timeout = 4000)
+    public void signalFileTriggersDump() throws IOException {
+        final File signal = new File(tempDir.getRoot(), "dump-now");
+        setupLogging(signal);
+        final Logger logger = context.getLogger(this.getClass());
+        logger.debug("recorded");
+
+        assertThat(signal.createNewFile()).isTrue();
+        while (signal.exists()) {
+            waitNoInterruption(10);
+        }
+        waitNoInterruption(50);
+        assertThat(dumped()).extracting(e -> e.getMessage().getFormattedMessage()).contains("recorded");
+    }
+
+    @Test
+    public void eventsTheTargetHasShownAreNotDumpedAgain() {
+        setupLogging(null, Level.INFO);
+        final Logger logger = context.getLogger(this.getClass());
+        logger.debug("one");
+        logger.info("two");
+        logger.error("three");
+        assertThat(dumped()).extracting(e -> e.getMessage().getFormattedMessage())
+                .containsExactlyInAnyOrder("two", "three",
+                        "Flight recorder dump of 1 events begins", "one", "Flight recorder dump ends");
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Can logger levels be changed at runtime, via the API and a control file?
+ *
+ * @author matt
+ *
+ */
+public final class TestLogLevelRegistry {
+    private static final String PACKAGE = "org.devzendo.commoncode.logging.registrytest";
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final LogLevelRegistry registry = LogLevelRegistry.getInstance();
+
+    @Before
+    public void setupLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    @After
+    public void restoreLogging() {
+        registry.stopWatchingControlFile();
+        registry.clearLevels();
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    private static Level levelOf(final String loggerName) {
+        return LogManager.getLogger(loggerName).getLevel();
+    }
+
+    private static void writeControlFile(final File file, final String... lines) throws IOException {
+        try (FileWriter writer = new FileWriter(file)) {
+            for (final String line : lines) {
+                writer.write(line + "\n");
+            }
+        }
+    }
+
+    @Test
+    public void levelsSetViaTheApiApplyToDescendantsUntilCleared() {
+        final Level inherited = levelOf(PACKAGE + ".Child");
+        registry.setLevel(PACKAGE, Level.TRACE);
+        assertThat(levelOf(PACKAGE + ".Child")).isEqualTo(Level.TRACE);
+        assertThat(registry.getLevels()).containsEntry(PACKAGE, Level.TRACE);
+
+        registry.clearLevel(PACKAGE);
+        assertThat(levelOf(PACKAGE + ".Child")).isEqualTo(inherited);
+        assertThat(registry.getLevel(PACKAGE)).isNull();
+    }
+
+    @Test
+    public void levelsSurviveReconfiguration() {
+        registry.setLevel(PACKAGE, Level.ERROR);
+        Logging.getInstance().setupLoggingFromArgs(Arrays.asList("-debug"));
+        assertThat(levelOf(PACKAGE)).isEqualTo(Level.ERROR);
+    }
+
+    @Test
+    public void controlFileLevelsOverrideApiLevelsAndTrackChanges() throws IOException {
+        final File control = new File(tempDir.getRoot(), "levels.properties");
+        writeControlFile(control, PACKAGE + "=DEBUG", PACKAGE + ".other=WARN", PACKAGE + ".bad=LOUD");
+        registry.setLevel(PACKAGE, Level.ERROR);
+
+        registry.watchControlFile(control, 60000L);
+        assertThat(levelOf(PACKAGE)).isEqualTo(Level.DEBUG);
+        assertThat(levelOf(PACKAGE + ".other")).isEqualTo(Level.WARN);
+        assertThat(registry.getLevel(PACKAGE + ".bad")).isNull();
+
+        writeControlFile(control, PACKAGE + ".other=TRACE");
+        registry.checkControlFile();
+        assertThat(levelOf(PACKAGE)).isEqualTo(Level.ERROR); // back to the API level
+        assertThat(levelOf(PACKAGE + ".other")).isEqualTo(Level.TRACE);
+
+        assertThat(control.delete()).isTrue();
+        registry.checkControlFile();
+        assertThat(levelOf(PACKAGE + ".other")).isEqualTo(Level.ERROR); // inherited
+        assertThat(registry.getLevels()).containsOnlyKeys(PACKAGE);
+    }
+}
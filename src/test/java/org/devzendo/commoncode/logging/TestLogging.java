@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.core.Appender;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.appender.AsyncAppender;
+import org.apache.logging.log4j.core.appender.ConsoleAppender;
+import org.apache.logging.log4j.core.config.Configuration;
+import org.apache.logging.log4j.core.layout.PatternLayout;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the setup of logging from command line arguments.
+ * @author matt
+ *
+ */
+public final class TestLogging {
+    private final Logging logging = Logging.getInstance();
+
+    @After
+    public void restoreLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    private static Configuration configuration() {
+        return ((LoggerContext) LogManager.getContext(false)).getConfiguration();
+    }
+
+    @Test
+    public void loggingIsSynchronousByDefault() {
+        final List<String> remaining = logging.setupLoggingFromArgs(Arrays.asList("-level", "foo"));
+        assertThat(remaining).containsExactly("foo");
+        assertThat(logging.isAsyncLogging()).isFalse();
+        assertThat(configuration().<Appender>getAppender("ASYNC")).isNull();
+        assertThat(configuration().getRootLogger().getLevel()).isEqualTo(Level.INFO);
+    }
+
+    @Test
+    public void asyncLoggingCanBeConfiguredFromArgs() {
+        final List<String> remaining = logging.setupLoggingFromArgs(
+                Arrays.asList("-debug", "-asyncqueue=256", "-asyncdiscard", "-gcfree", "bar"));
+        assertThat(remaining).containsExactly("bar");
+        assertThat(logging.isAsyncLogging()).isTrue();
+
+        final AsyncAppender async = configuration().getAppender("ASYNC");
+        assertThat(async.getQueueCapacity()).isEqualTo(256);
+        assertThat(async.isBlocking()).isFalse();
+        assertThat(async.getAppenderRefStrings()).containsExactly("CONSOLE");
+        assertThat(configuration().getRootLogger().getAppenders()).containsOnlyKeys("ASYNC");
+        assertThat(configuration().getRootLogger().getLevel()).isEqualTo(Level.DEBUG);
+    }
+
+    @Test
+    public void garbageFreeLoggingWritesTheConsoleDirectlyUnlessEventsAreCopied() {
+        logging.setupLoggingFromArgs(Arrays.asList("-gcfree"));
+        assertThat(logging.isGarbageFreeLogging()).isTrue();
+        assertThat(((ConsoleAppender) configuration().getAppender("CONSOLE")).getManager().getName())
+                .doesNotContain("System.out");
+
+        logging.setAsyncLogging(64, true);
+        assertThat(logging.isGarbageFreeLogging()).isFalse();
+        logging.setSyncLogging();
+        assertThat(logging.isGarbageFreeLogging()).isTrue();
+        logging.setGarbageFreeLogging(false);
+        assertThat(logging.isGarbageFreeLogging()).isFalse();
+    }
+
+    @Test
+    public void invalidQueueSizeIsRejected() {
+        assertThatThrownBy(() -> logging.setupLoggingFromArgs(Arrays.asList("-asyncqueue=lots")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Asynchronous logging queue size 'lots' is not a positive integer");
+    }
+
+    @Test
+    public void asyncLoggingCanBeSwitchedAtRuntimeKeepingTheLayout() {
+        logging.setupLoggingFromArgs(Arrays.asList("-level", "-threads"));
+        logging.setAsyncLogging(64, true);
+
+        final AsyncAppender async = configuration().getAppender("ASYNC");
+        assertThat(async.getQueueCapacity()).isEqualTo(64);
+        assertThat(async.isBlocking()).isTrue();
+        final Appender console = configuration().getAppender("CONSOLE");
+        assertThat(((PatternLayout) console.getLayout()).getConversionPattern()).isEqualTo("%-5p [%t] %m\n");
+
+        logging.setSyncLogging();
+        assertThat(logging.isAsyncLogging()).isFalse();
+        assertThat(configuration().<Appender>getAppender("ASYNC")).isNull();
+        assertThat(configuration().getRootLogger().getAppenders()).containsOnlyKeys("CONSOLE");
+    }
+
+    @Test
+    public void flightRecorderRecordsDebugEventsBehindTheConsoleLevel() {
+        logging.setupLoggingFromArgs(Arrays.asList("-flightrecorder=16"));
+        assertThat(configuration().getRootLogger().getLevel()).isEqualTo(Level.DEBUG);
+        assertThat(configuration().getRootLogger().getAppenderRefs())
+                .extracting(ref -> ref.getRef() + ":" + ref.getLevel())
+                .containsExactlyInAnyOrder("CONSOLE:INFO", "FLIGHTRECORDER:null");
+        final FlightRecorderAppender recorder = configuration().getAppender("FLIGHTRECORDER");
+        assertThat(recorder.getCapacity()).isEqualTo(16);
+
+        final org.apache.logging.log4j.Logger logger = LogManager.getLogger(TestLogging.class);
+        logger.debug("recorded but not shown");
+        assertThat(logging.dumpFlightRecorder()).isEqualTo(1);
+        assertThat(logging.dumpFlightRecorder()).isEqualTo(0);
+
+        logging.disableFlightRecorder();
+        assertThat(configuration().getRootLogger().getLevel()).isEqualTo(Level.INFO);
+        assertThat(configuration().<FlightRecorderAppender>getAppender("FLIGHTRECORDER")).isNull();
+        assertThat(logging.dumpFlightRecorder()).isEqualTo(0);
+    }
+
+    @Test
+    public void invalidFlightRecorderCapacityIsRejected() {
+        assertThatThrownBy(() -> logging.setupLoggingFromArgs(Arrays.asList("-flightrecorder=0")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Flight recorder capacity '0' is not a positive integer");
+        assertThatThrownBy(() -> logging.enableFlightRecorder(-1, null))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessage("Flight recorder capacity '-1' is not a positive integer");
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.logging;
+
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LogEvent;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.builder.api.*;
+import org.apache.logging.log4j.core.config.builder.impl.BuiltConfiguration;
+import org.apache.logging.log4j.core.impl.Log4jLogEvent;
+import org.apache.logging.log4j.message.SimpleMessage;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+/**
+ * Can the most recent log events be captured in a ring?
+ *
+ * @author matt
+ *
+ */
+public final class TestRingCapturingAppender {
+    private LoggerContext context;
+
+    @Before
+    public void setupLogging() {
+        ConfigurationBuilder<BuiltConfiguration> builder =
+                ConfigurationBuilderFactory.newConfigurationBuilder();
+
+        AppenderComponentBuilder appender = builder.newAppender("RING", "RingCapturing")
+                .addAttribute("capacity", 4);
+        builder.add(appender);
+
+        RootLoggerComponentBuilder rootLogger = builder.newRootLogger(Level.DEBUG)
+                .add(builder.newAppenderRef("RING"));
+        builder.add(rootLogger);
+
+        context = new LoggerContext("RingCapturingTestContext");
+        context.start(builder.build());
+    }
+
+    @After
+    public void teardownLogging() {
+        if (context != null) {
+            context.stop();
+        }
+    }
+
+    @Test
+    public void mostRecentEventsAreCaptured() {
+        final Logger logger = context.getLogger(this.getClass());
+        final RingCapturingAppender appender = context.getConfiguration().getAppender("RING");
+        Assert.assertEquals(4, appender.getCapacity());
+
+        for (int i = 0; i < 6; i++) {
+            logger.debug("Event " + i);
+        }
+        final List<LogEvent> events = appender.getEvents();
+        assertThat(events).extracting(e -> e.getMessage().getFormattedMessage())
+                .containsExactly("Event 2", "Event 3", "Event 4", "Event 5");
+        assertThat(appender.getAppendedCount()).isEqualTo(6);
+        assertThat(appender.getOverwrittenCount()).isEqualTo(2);
+
+        // the snapshot is not affected by later events
+        logger.info("Event 6");
+        assertThat(events).hasSize(4);
+        assertThat(events.get(0).getMessage().getFormattedMessage()).isEqualTo("Event 2");
+    }
+
+    @Test
+    public void eventsCanBeFiltered() {
+        final Logger logger = context.getLogger(this.getClass());
+        final RingCapturingAppender appender = context.getConfiguration().getAppender("RING");
+        logger.debug("quiet");
+        logger.warn("loud");
+        logger.debug("quiet again");
+
+        assertThat(appender.getEvents(e -> e.getLevel().isMoreSpecificThan(Level.WARN)))
+                .extracting(e -> e.getMessage().getFormattedMessage())
+                .containsExactly("loud");
+    }
+
+    @Test
+    public void clearForgetsCapturedEvents() {
+        final Logger logger = context.getLogger(this.getClass());
+        final RingCapturingAppender appender = context.getConfiguration().getAppender("RING");
+        logger.debug("before");
+        appender.clear();
+        assertThat(appender.getEvents()).isEmpty();
+        logger.debug("after");
+        assertThat(appender.getEvents()).extracting(e -> e.getMessage().getFormattedMessage())
+                .containsExactly("after");
+    }
+
+    @Test
+    public void capacityIsRoundedUpToAPowerOfTwo() {
+        assertThat(new RingCapturingAppender("r", 1).getCapacity()).isEqualTo(1);
+        assertThat(new RingCapturingAppender("r", 5).getCapacity()).isEqualTo(8);
+        assertThat(new RingCapturingAppender("r", 1024).getCapacity()).isEqualTo(1024);
+    }
+
+    @Test(timeout = 10000)
+    public void concurrentAppendsAndSnapshotsAreConsistent() throws InterruptedException {
+        final RingCapturingAppender appender = new RingCapturingAppender("r", 64);
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 20000; i++) {
+                    appender.append(Log4jLogEvent.newBuilder()
+                            .setLevel(Level.INFO)
+                            .setMessage(new SimpleMessage(thread + ":" + i))
+                            .build());
+                }
+            });
+            threads[t].start();
+        }
+        while (threads[0].isAlive()) {
+            final List<LogEvent> snapshot = appender.getEvents();
+            assertThat(snapshot.size()).isLessThanOrEqualTo(64);
+            assertThat(snapshot).doesNotContainNull();
+            assertEachThreadsEventsAreInOrder(snapshot);
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(appender.getAppendedCount()).isEqualTo(80000);
+        assertThat(appender.getEvents()).hasSize(64);
+        assertEachThreadsEventsAreInOrder(appender.getEvents());
+    }
+
+    // A slot read while being rewritten would pair a sequence number with
+    // the wrong event, putting a thread's events out of order.
+    private static void assertEachThreadsEventsAreInOrder(final List<LogEvent> events) {
+        final int[] last = {-1, -1, -1, -1};
+        for (final LogEvent event : events) {
+            final String[] parts = event.getMessage().getFormattedMessage().split(":");
+            final int thread = Integer.parseInt(parts[0]);
+            final int i = Integer.parseInt(parts[1]);
+            assertThat(i).isGreaterThan(last[thread]);
+            last[thread] = i;
+        }
+    }
+}
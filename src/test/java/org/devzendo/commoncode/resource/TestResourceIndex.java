@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.resource;
+
+import org.devzendo.commoncode.logging.LoggingUnittestHelper;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the ResourceIndex
+ * @author matt
+ *
+ */
+public final class TestResourceIndex {
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    @BeforeClass
+    public static void setupLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    @Test
+    public void contextClassLoaderResourcesAreIndexed() {
+        final ResourceIndex index = ResourceIndex.forContextClassLoader();
+        assertThat(index).isSameAs(ResourceIndex.forContextClassLoader());
+        assertThat(index.resourceExists("resourceloader.txt")).isTrue();
+        assertThat(index.resourceExists("lordlucan.txt")).isFalse();
+        assertThat(index.getResourceURL("test.properties")).isEqualTo(ResourceLoader.getResourceURL("test.properties"));
+        // from the platform, not the classpath
+        assertThat(index.resourceExists("java/lang/Object.class")).isTrue();
+    }
+
+    @Test
+    public void directoriesAndJarsAreIndexedFirstOccurrenceFirst() throws IOException {
+        final File dir = tempDir.newFolder("classes");
+        Files.write(new File(dir, "shared.txt").toPath(), "from dir".getBytes(StandardCharsets.UTF_8));
+        final File jar = tempDir.newFile("lib.jar");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar))) {
+            jos.putNextEntry(new JarEntry("shared.txt"));
+            jos.write("from jar".getBytes(StandardCharsets.UTF_8));
+            jos.putNextEntry(new JarEntry("sub/only-in-jar.txt"));
+            jos.write("jar only".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL(), jar.toURI().toURL()}, null)) {
+            final ResourceIndex index = new ResourceIndex(loader, 1024, 1024);
+            assertThat(index.size()).isEqualTo(2);
+            assertThat(contents(index, "shared.txt")).isEqualTo("from dir");
+            assertThat(contents(index, "sub/only-in-jar.txt")).isEqualTo("jar only");
+            assertThat(index.getResourceURL("sub/only-in-jar.txt").getProtocol()).isEqualTo("jar");
+            assertThat(index.getResourceContents("nonexistent.txt")).isNull();
+        }
+    }
+
+    @Test
+    public void parentsResourcesAreFoundFirstAsTheLoaderWouldFindThem() throws IOException {
+        final File parentDir = tempDir.newFolder("parent");
+        Files.write(new File(parentDir, "same.txt").toPath(), "from parent".getBytes(StandardCharsets.UTF_8));
+        final File childDir = tempDir.newFolder("child");
+        Files.write(new File(childDir, "same.txt").toPath(), "from child".getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(childDir, "child.txt").toPath(), "child only".getBytes(StandardCharsets.UTF_8));
+
+        try (URLClassLoader parent = new URLClassLoader(new URL[] {parentDir.toURI().toURL()}, null);
+             URLClassLoader child = new URLClassLoader(new URL[] {childDir.toURI().toURL()}, parent)) {
+            final ResourceIndex index = new ResourceIndex(child, 1024, 1024);
+            assertThat(index.size()).isEqualTo(2);
+            assertThat(index.getResourceURL("same.txt")).isEqualTo(child.getResource("same.txt"));
+            assertThat(contents(index, "same.txt")).isEqualTo("from parent");
+            assertThat(contents(index, "child.txt")).isEqualTo("child only");
+        }
+    }
+
+    @Test
+    public void loaderWithAnUnknownSearchPathIsAskedRatherThanIndexed() throws IOException {
+        final ClassLoader opaque = new ClassLoader(null) {
+        };
+        final ResourceIndex index = new ResourceIndex(opaque, 1024, 1024);
+        assertThat(index.size()).isZero();
+        // on java.class.path, but not visible to this loader
+        assertThat(index.resourceExists("resourceloader.txt")).isFalse();
+        assertThat(index.resourceExists("java/lang/Object.class")).isTrue();
+    }
+
+    @Test
+    public void jarsNamedByClassPathManifestEntriesAreIndexed() throws IOException {
+        final File lib = tempDir.newFile("lib.jar");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(lib))) {
+            jos.putNextEntry(new JarEntry("from-lib.txt"));
+            jos.write("lib".getBytes(StandardCharsets.UTF_8));
+        }
+        final Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().put(Attributes.Name.CLASS_PATH, "lib.jar");
+        final File app = tempDir.newFile("app.jar");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(app), manifest)) {
+            jos.putNextEntry(new JarEntry("from-app.txt"));
+            jos.write("app".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {app.toURI().toURL()}, null)) {
+            final ResourceIndex index = new ResourceIndex(loader, 1024, 1024);
+            assertThat(index.size()).isEqualTo(3); // and the manifest itself
+            assertThat(index.getResourceURL("from-lib.txt")).isEqualTo(loader.getResource("from-lib.txt"));
+            assertThat(contents(index, "from-lib.txt")).isEqualTo("lib");
+        }
+    }
+
+    @Test
+    public void contentsCacheIsBoundedBySize() throws IOException {
+        final File dir = tempDir.newFolder("classes");
+        for (int i = 0; i < 4; i++) {
+            Files.write(new File(dir, "r" + i).toPath(), new byte[40]);
+        }
+        Files.write(new File(dir, "big").toPath(), new byte[200]);
+
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, null)) {
+            final ResourceIndex index = new ResourceIndex(loader, 100, 50);
+            index.getResourceContents("r0");
+            index.getResourceContents("r1");
+            assertThat(index.getCachedBytes()).isEqualTo(80);
+            index.getResourceContents("r2");
+            assertThat(index.getCachedBytes()).isEqualTo(80); // r0 evicted
+
+            // too big to cache, but still read
+            assertThat(index.getResourceContents("big").remaining()).isEqualTo(200);
+            assertThat(index.getCachedBytes()).isEqualTo(80);
+
+            // a cached resource's contents can't be changed by callers
+            assertThat(index.getResourceContents("r1").isReadOnly()).isTrue();
+
+            index.clear();
+            assertThat(index.getCachedBytes()).isEqualTo(0);
+        }
+    }
+
+    private static String contents(final ResourceIndex index, final String name) throws IOException {
+        final ByteBuffer buffer = index.getResourceContents(name);
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Test(timeout = 20000)
+    public void sharedIndexDoesNotKeepItsClassLoaderReachable() throws IOException, InterruptedException {
+        final File dir = tempDir.newFolder("plugin");
+        Files.write(new File(dir, "plugin.txt").toPath(), "plugin".getBytes(StandardCharsets.UTF_8));
+        final WeakReference<ClassLoader> loaderRef = useSharedIndexOfDroppedLoader(dir);
+        while (loaderRef.get() != null) {
+            System.gc();
+            Thread.sleep(50);
+        }
+    }
+
+    private WeakReference<ClassLoader> useSharedIndexOfDroppedLoader(final File dir) throws IOException {
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, null)) {
+            thread.setContextClassLoader(loader);
+            final ResourceIndex index = ResourceIndex.forContextClassLoader();
+            assertThat(contents(index, "plugin.txt")).isEqualTo("plugin");
+            assertThat(index.resourceExists("lordlucan.txt")).isFalse();
+            return new WeakReference<>(loader);
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+}
@@ -19,9 +19,24 @@ package org.devzendo.commoncode.resource;
 import org.devzendo.commoncode.logging.LoggingUnittestHelper;
 import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
 
 /**
  * Test the resource loader
@@ -29,6 +44,9 @@ import java.util.Properties;
  *
  */
 public final class TestResourceLoader {
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
     /**
      * 
      */
@@ -73,4 +91,73 @@ public final class TestResourceLoader {
         Assert.assertNull(ResourceLoader.readPropertiesResource("nonexistant.properties"));
     }
 
+    @Test
+    public void multiByteCharactersSplitAcrossBlocksAreDecoded() throws IOException {
+        final StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 16383; i++) {
+            expected.append('a');
+        }
+        for (int i = 0; i < 5000; i++) {
+            expected.append("\u00e9\u20ac\ud83d\ude00");
+        }
+        final byte[] encoded = expected.toString().getBytes(StandardCharsets.UTF_8);
+        final File dir = tempDir.newFolder("classes");
+        Files.write(new File(dir, "utf8.txt").toPath(), encoded);
+
+        final ClassLoader original = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, original)) {
+            Thread.currentThread().setContextClassLoader(loader);
+            Assert.assertEquals(expected.toString(), ResourceLoader.readResource("utf8.txt", StandardCharsets.UTF_8));
+            Assert.assertArrayEquals(encoded, ResourceLoader.readResourceBytes("utf8.txt"));
+            final ByteBuffer buffer = ResourceLoader.readResourceBuffer("utf8.txt");
+            Assert.assertEquals(encoded.length, buffer.remaining());
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
+
+    @Test
+    public void missingResourcesHaveNoBytes() {
+        Assert.assertNull(ResourceLoader.readResourceBytes("lordlucan.txt"));
+        Assert.assertNull(ResourceLoader.readResourceBuffer("lordlucan.txt"));
+        Assert.assertEquals("", ResourceLoader.readResource("lordlucan.txt", StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void fileAndStoredJarResourcesAreMapped() throws IOException {
+        final byte[] data = "some data that might be large".getBytes(StandardCharsets.US_ASCII);
+        final File dir = tempDir.newFolder("classes");
+        Files.write(new File(dir, "data.bin").toPath(), data);
+
+        final File jar = tempDir.newFile("data.jar");
+        try (JarOutputStream jos = new JarOutputStream(new FileOutputStream(jar))) {
+            jos.putNextEntry(new JarEntry("deflated.bin"));
+            jos.write(data);
+            final JarEntry stored = new JarEntry("stored.bin");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(data.length);
+            stored.setCompressedSize(data.length);
+            final CRC32 crc = new CRC32();
+            crc.update(data);
+            stored.setCrc(crc.getValue());
+            jos.putNextEntry(stored);
+            jos.write(data);
+        }
+
+        final ClassLoader original = Thread.currentThread().getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL(), jar.toURI().toURL()}, original)) {
+            Thread.currentThread().setContextClassLoader(loader);
+            for (final String name : new String[] {"data.bin", "stored.bin", "deflated.bin"}) {
+                final ByteBuffer buffer = ResourceLoader.mapResource(name);
+                Assert.assertEquals(name, !name.equals("deflated.bin"), buffer instanceof MappedByteBuffer);
+                Assert.assertTrue(buffer.isReadOnly());
+                final byte[] read = new byte[buffer.remaining()];
+                buffer.get(read);
+                Assert.assertArrayEquals(data, read);
+            }
+            Assert.assertNull(ResourceLoader.mapResource("lordlucan.txt"));
+        } finally {
+            Thread.currentThread().setContextClassLoader(original);
+        }
+    }
 }
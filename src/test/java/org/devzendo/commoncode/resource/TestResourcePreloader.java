@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.resource;
+
+import org.devzendo.commoncode.logging.LoggingUnittestHelper;
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.Image;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the ResourcePreloader
+ * @author matt
+ *
+ */
+public final class TestResourcePreloader {
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+    private final ResourcePreloader preloader = new ResourcePreloader(executor);
+
+    @BeforeClass
+    public static void setupLogging() {
+        LoggingUnittestHelper.setupLogging();
+    }
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test(timeout = 4000)
+    public void resourcesOfEachKindArePreloaded() {
+        final Map<String, ResourcePreloader.LoadedResource<String>> text = ResourcePreloader.awaitAll(
+                preloader.preloadText(Arrays.asList("resourceloader.txt", "lordlucan.txt"), StandardCharsets.UTF_8));
+        assertThat(text.keySet()).containsExactly("resourceloader.txt", "lordlucan.txt");
+        assertThat(text.get("resourceloader.txt").getValue()).isEqualTo("this is a test");
+        assertThat(text.get("resourceloader.txt").getLoadNanos()).isPositive();
+        assertThat(text.get("lordlucan.txt").getValue()).isNull();
+
+        final Map<String, ResourcePreloader.LoadedResource<Properties>> properties = ResourcePreloader.awaitAll(
+                preloader.preloadProperties(Arrays.asList("test.properties")));
+        assertThat(properties.get("test.properties").getValue().getProperty("name")).isEqualTo("value");
+
+        final Map<String, ResourcePreloader.LoadedResource<Image>> images = ResourcePreloader.awaitAll(
+                preloader.preloadImages(Arrays.asList("application.gif")));
+        assertThat(images.get("application.gif").getValue()).isNotNull();
+
+        final Map<String, ResourcePreloader.LoadedResource<byte[]>> bytes = ResourcePreloader.awaitAll(
+                preloader.preloadBytes(Arrays.asList("resourceloader.txt")));
+        assertThat(bytes.get("resourceloader.txt").getValue()).hasSize(14);
+    }
+
+    @Test(timeout = 4000)
+    public void resourcesAreLoadedConcurrently() throws InterruptedException {
+        // Each load waits until all four are in progress at once.
+        final CountDownLatch allStarted = new CountDownLatch(4);
+        final Map<String, ResourcePreloader.LoadedResource<String>> loaded = ResourcePreloader.awaitAll(
+                preloader.preload(Arrays.asList("a", "b", "c", "d"), name -> {
+                    allStarted.countDown();
+                    try {
+                        return allStarted.await(2, TimeUnit.SECONDS) ? name.toUpperCase() : null;
+                    } catch (final InterruptedException e) {
+                        return null;
+                    }
+                }));
+        assertThat(loaded.values()).extracting(ResourcePreloader.LoadedResource::getValue).containsExactly("A", "B", "C", "D");
+    }
+
+    @Test(timeout = 4000)
+    public void resourcesAreLoadedWithTheCallersContextClassLoader() throws IOException, InterruptedException, ExecutionException {
+        final File dir = tempDir.newFolder("plugin");
+        Files.write(new File(dir, "plugin.txt").toPath(), "plugin".getBytes(StandardCharsets.UTF_8));
+        ((ThreadPoolExecutor) executor).prestartAllCoreThreads(); // so they don't inherit the loader below
+        final Thread thread = Thread.currentThread();
+        final ClassLoader previous = thread.getContextClassLoader();
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toURI().toURL()}, previous)) {
+            thread.setContextClassLoader(loader);
+            final Map<String, ResourcePreloader.LoadedResource<String>> text = ResourcePreloader.awaitAll(
+                    preloader.preloadText(Collections.singletonList("plugin.txt"), StandardCharsets.UTF_8));
+            assertThat(text.get("plugin.txt").getValue()).isEqualTo("plugin");
+            // and the pool's threads are restored afterwards
+            for (int i = 0; i < 4; i++) {
+                assertThat(executor.submit(() -> Thread.currentThread().getContextClassLoader()).get()).isNotSameAs(loader);
+            }
+        } finally {
+            thread.setContextClassLoader(previous);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.string;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests for the binary diff code
+ * @author matt
+ *
+ */
+public final class TestHexDiff {
+
+    @Rule
+    public TemporaryFolder tempDir = new TemporaryFolder();
+
+    private static byte[] sequence(final int length) {
+        final byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) i;
+        }
+        return bytes;
+    }
+
+    @Test
+    public void mismatchFindsFirstDifferingByte() {
+        final byte[] a = sequence(100);
+        final byte[] b = sequence(100);
+        assertThat(HexDiff.mismatch(ByteBuffer.wrap(a), ByteBuffer.wrap(b))).isEqualTo(-1);
+        b[77] = 0;
+        assertThat(HexDiff.mismatch(ByteBuffer.wrap(a), ByteBuffer.wrap(b))).isEqualTo(77);
+        assertThat(HexDiff.mismatch(ByteBuffer.wrap(a), ByteBuffer.wrap(a, 0, 50))).isEqualTo(50);
+    }
+
+    @Test
+    public void identicalBuffersHaveNoDiff() {
+        assertThat(HexDiff.diff(ByteBuffer.wrap(sequence(64)), ByteBuffer.wrap(sequence(64)), 1)).isEmpty();
+    }
+
+    @Test
+    public void diffShowsOnlyDifferingLinesWithContext() {
+        final byte[] a = sequence(16 * 10);
+        final byte[] b = sequence(16 * 10);
+        b[0x21] = 'X';
+        b[0x85] = 'Y';
+        final ByteBuffer first = ByteBuffer.wrap(a);
+        final String[] diff = HexDiff.diff(first, ByteBuffer.wrap(b), 1);
+
+        assertThat(diff).containsExactly(
+                "  00000010 | 10 11 12 13 14 15 16 17 18 19 1A 1B 1C 1D 1E 1F | ................ ",
+                "< 00000020 | 20 21 22 23 24 25 26 27 28 29 2A 2B 2C 2D 2E 2F |  !\"#$%&'()*+,-./ ",
+                "> 00000020 | 20 58 22 23 24 25 26 27 28 29 2A 2B 2C 2D 2E 2F |  X\"#$%&'()*+,-./ ",
+                "  00000030 | 30 31 32 33 34 35 36 37 38 39 3A 3B 3C 3D 3E 3F | 0123456789:;<=>? ",
+                "--",
+                "  00000070 | 70 71 72 73 74 75 76 77 78 79 7A 7B 7C 7D 7E 7F | pqrstuvwxyz{|}~. ",
+                "< 00000080 | 80 81 82 83 84 85 86 87 88 89 8A 8B 8C 8D 8E 8F | ................ ",
+                "> 00000080 | 80 81 82 83 84 59 86 87 88 89 8A 8B 8C 8D 8E 8F | .....Y.......... ",
+                "  00000090 | 90 91 92 93 94 95 96 97 98 99 9A 9B 9C 9D 9E 9F | ................ ");
+        assertThat(first.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void diffShowsLinesPresentInOnlyOneBuffer() {
+        final String[] diff = HexDiff.diff(ByteBuffer.wrap(sequence(20)), ByteBuffer.wrap(sequence(36)), 0);
+
+        assertThat(diff).containsExactly(
+                "< 00000010 | 10 11 12 13                                     | ....             ",
+                "> 00000010 | 10 11 12 13 14 15 16 17 18 19 1A 1B 1C 1D 1E 1F | ................ ",
+                "> 00000020 | 20 21 22 23                                     |  !\"#             ");
+    }
+
+    @Test
+    public void filesCanBeDiffed() throws IOException {
+        final byte[] b = sequence(48);
+        b[47] = 0;
+        final Path fa = tempDir.newFile("a.bin").toPath();
+        final Path fb = tempDir.newFile("b.bin").toPath();
+        Files.write(fa, sequence(48));
+        Files.write(fb, b);
+
+        final String[] diff = HexDiff.diff(fa, fb, 0);
+        assertThat(diff).hasSize(2);
+        assertThat(diff[0]).startsWith("< 00000020 |");
+        assertThat(diff[1]).startsWith("> 00000020 |");
+    }
+}
@@ -21,7 +21,11 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -111,6 +115,28 @@ public final class TestHexDump {
         Assert.assertEquals((byte) 0xff, bytes[4]);
     }
 
+    @Test
+    public void testHex2BytesRejectsNonHexChars() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Cannot decode 'G' as a hex nibble");
+        HexDump.hex2bytes("00g1");
+    }
+
+    @Test
+    public void testBytes2HexRoundTripsEveryByteValue() {
+        final byte[] all = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            all[i] = (byte) i;
+        }
+        final String hex = HexDump.bytes2hex(all);
+        assertThat(hex).hasSize(512);
+        for (int i = 0; i < 256; i++) {
+            assertThat(hex.substring(i * 2, i * 2 + 2)).isEqualTo(HexDump.byte2hex((byte) i));
+        }
+        assertThat(HexDump.hex2bytes(hex)).isEqualTo(all);
+        assertThat(HexDump.hex2bytes(hex.toLowerCase())).isEqualTo(all);
+    }
+
     @Test
     public void testLong2Hex() {
         assertThat(HexDump.long2hex(0))
@@ -204,6 +230,76 @@ public final class TestHexDump {
         assertThat(HexDump.hexDump(ByteBuffer.allocate(0))).hasSize(0);
     }
 
+    @Test
+    public void testHexDumpLinesMatchesHexDump() {
+        final ByteBuffer buffer = ByteBuffer.wrap(BUFFER);
+        buffer.position(2);
+        assertThat(HexDump.hexDumpLines(buffer).toArray()).isEqualTo(HexDump.hexDump(buffer));
+        assertThat(buffer.position()).isEqualTo(2);
+        assertThat(HexDump.hexDumpLines(null).count()).isEqualTo(0);
+    }
+
+    @Test
+    public void testParallelHexDumpMatchesHexDump() throws IOException {
+        final byte[] large = new byte[300 * 1024 + 7];
+        new Random(42L).nextBytes(large);
+        final ByteBuffer buffer = ByteBuffer.wrap(large);
+        final String expected = String.join("\n", HexDump.hexDump(large)) + "\n";
+
+        final ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            final StringBuilder out = new StringBuilder();
+            HexDump.hexDump(buffer, out, pool);
+            assertThat(out.toString()).isEqualTo(expected);
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(buffer.position()).isEqualTo(0);
+
+        final String streamed = HexDump.hexDumpLines(buffer).parallel().collect(Collectors.joining("\n", "", "\n"));
+        assertThat(streamed).isEqualTo(expected);
+    }
+
+    @Test
+    public void testParallelHexDumpOfNullOrEmptyBufferWritesNothing() throws IOException {
+        final StringBuilder out = new StringBuilder();
+        HexDump.hexDump((ByteBuffer) null, out);
+        HexDump.hexDump(ByteBuffer.allocate(0), out);
+        assertThat(out.toString()).isEmpty();
+    }
+
+    @Test
+    public void testSearchFindsOverlappingOccurrences() {
+        final ByteBuffer buffer = ByteBuffer.wrap("xxabababyyab".getBytes());
+        assertThat(HexDump.search(buffer, "abab".getBytes())).containsExactly(2, 4);
+        assertThat(HexDump.search(buffer, "ab".getBytes())).containsExactly(2, 4, 6, 10);
+        assertThat(HexDump.search(buffer, "zz".getBytes())).isEmpty();
+        assertThat(buffer.position()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSearchForEmptyPatternIsRejected() {
+        thrown.expect(IllegalArgumentException.class);
+        thrown.expectMessage("Cannot search for an empty pattern");
+        HexDump.search(ByteBuffer.wrap(BUFFER), new byte[0]);
+    }
+
+    @Test
+    public void testHexDumpMatchesShowsLinesContainingOccurrences() {
+        final byte[] buffer = new byte[64];
+        buffer[14] = 'A';
+        buffer[15] = 'B';
+        buffer[16] = 'C';
+        buffer[50] = 'A';
+        buffer[51] = 'B';
+        buffer[52] = 'C';
+        final String[] lines = HexDump.hexDumpMatches(ByteBuffer.wrap(buffer), "ABC".getBytes());
+        assertThat(lines).containsExactly(
+                "00000000 | 00 00 00 00 00 00 00 00 00 00 00 00 00 00 41 42 | ..............AB ",
+                "00000010 | 43 00 00 00 00 00 00 00 00 00 00 00 00 00 00 00 | C............... ",
+                "00000030 | 00 00 41 42 43 00 00 00 00 00 00 00 00 00 00 00 | ..ABC........... ");
+    }
+
     @Test
     public void testAsciiDump() {
         final String in = "This is a test of the asciiDump routine\n";
@@ -24,6 +24,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.util.Locale;
+import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.devzendo.commoncode.string.StringUtils.join;
@@ -67,6 +69,90 @@ public final class TestStringUtils {
         // max long: 9223372036854775807L
     }
 
+    @Test
+    public void appendedByteUnitsMatchFormatter() {
+        final Random random = new Random(1234L);
+        final StringBuilder sb = new StringBuilder("prefix");
+        for (int i = 0; i < 100000; i++) {
+            final long bytes = random.nextLong() >>> random.nextInt(64);
+            sb.setLength(6);
+            StringUtils.appendByteUnits(sb, bytes);
+            assertThat(sb.substring(6), equalTo(formatByteUnits(bytes)));
+        }
+        for (long bytes = -2000; bytes < 20000; bytes++) {
+            assertThat(translateByteUnits(bytes), equalTo(formatByteUnits(bytes)));
+        }
+    }
+
+    private static String formatByteUnits(final long bytes) {
+        final double work = bytes;
+        if (bytes < StringUtils.KILO) {
+            return String.format("%4dB", bytes);
+        }
+        final long[] units = {StringUtils.KILO, StringUtils.MEGA, StringUtils.GIGA, StringUtils.TERA, StringUtils.PETA, StringUtils.ETA};
+        final String[] names = {"KB", "MB", "GB", "TB", "PB"};
+        for (int i = 0; i < names.length; i++) {
+            if (bytes < units[i + 1]) {
+                return String.format("%6.2f" + names[i], work / units[i]);
+            }
+        }
+        return "???.?xB";
+    }
+
+    @Test
+    public void appendedPercentagesMatchFormatter() {
+        final StringBuilder sb = new StringBuilder();
+        for (long numerator = -50; numerator <= 2500; numerator++) {
+            for (final long denominator : new long[] {0, 1, 3, 7, 200, 1000, 65536}) {
+                sb.setLength(0);
+                StringUtils.appendPercentage(sb, numerator, denominator);
+                assertThat(sb.toString(), equalTo(StringUtils.translatePercentage(numerator, denominator).toString()));
+            }
+        }
+    }
+
+    @Test
+    public void appendedCommaBytesMatchNumberFormat() {
+        final Random random = new Random(5678L);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            final long n = random.nextLong() >> random.nextInt(64);
+            sb.setLength(0);
+            StringUtils.appendCommaBytes(sb, n);
+            assertThat(sb.toString(), equalTo(StringUtils.translateCommaBytes(n)));
+        }
+        sb.setLength(0);
+        StringUtils.appendCommaBytes(sb, Long.MIN_VALUE);
+        assertThat(sb.toString(), equalTo(StringUtils.translateCommaBytes(Long.MIN_VALUE)));
+    }
+
+    @Test
+    public void appendedFiguresFollowTheDefaultLocale() {
+        final Locale original = Locale.getDefault(Locale.Category.FORMAT);
+        try {
+            for (final Locale locale : new Locale[] {Locale.GERMANY, Locale.FRANCE, new Locale("ar", "EG"), new Locale("hi", "IN")}) {
+                Locale.setDefault(Locale.Category.FORMAT, locale);
+                final StringBuilder sb = new StringBuilder();
+                StringUtils.appendBandwidth(sb, 3723, 123456789L);
+                final String expectedRate = String.format("%.2f", (123456789L / StringUtils.MEGA) / 3.723);
+                assertThat(sb.toString(), equalTo(formatByteUnits(123456789L) + " ("
+                        + StringUtils.translateCommaBytes(123456789L) + " bytes) transferred in 3s 723ms ("
+                        + expectedRate + " MB/s)"));
+            }
+        } finally {
+            Locale.setDefault(Locale.Category.FORMAT, original);
+        }
+    }
+
+    @Test
+    public void bandwidthFormats() {
+        assertThat(StringUtils.translateBandwidth(2000, 4 * StringUtils.MEGA),
+                equalTo("  4.00MB (4,194,304 bytes) transferred in 2s 0ms (2.00 MB/s)"));
+        assertThat(StringUtils.translateBandwidth(0, 1),
+                equalTo("   1B (1 byte) transferred in 0ms (NaN MB/s)"));
+        assertThat(StringUtils.translateTimeDuration(90061001L), equalTo("1d 1h 1m 1s 1ms"));
+    }
+
     /**
      * Join
      */
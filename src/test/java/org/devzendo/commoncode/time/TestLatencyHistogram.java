@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.time;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests the LatencyHistogram
+ * @author matt
+ *
+ */
+public final class TestLatencyHistogram {
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void bucketsCoverEveryValueContiguously() {
+        assertThat(LatencyHistogram.bucket(0)).isEqualTo(0);
+        assertThat(LatencyHistogram.bucket(15)).isEqualTo(15);
+        for (long value : new long[]{16, 17, 31, 32, 33, 1000, 123456789L, Long.MAX_VALUE}) {
+            final int bucket = LatencyHistogram.bucket(value);
+            assertThat(LatencyHistogram.bucketUpperBound(bucket)).isGreaterThanOrEqualTo(value);
+            assertThat(LatencyHistogram.bucketUpperBound(bucket - 1)).isLessThan(value);
+            assertThat((double) LatencyHistogram.bucketUpperBound(bucket)).isCloseTo(value, within(value / 16.0));
+        }
+        assertThat(LatencyHistogram.bucketUpperBound(LatencyHistogram.bucket(Long.MAX_VALUE))).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getMeanNanos()).isEqualTo(0.0);
+        assertThat(histogram.getPercentileNanos(99.0)).isEqualTo(0);
+        assertThat(histogram.getMaxNanos()).isEqualTo(0);
+    }
+
+    @Test
+    public void percentilesAreWithinBucketResolution() {
+        for (int ms = 1; ms <= 1000; ms++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(ms));
+        }
+        histogram.record(-5); // counted as zero
+
+        assertThat(histogram.getCount()).isEqualTo(1001);
+        assertThat(histogram.getMaxNanos()).isEqualTo(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertThat(histogram.getMeanNanos()).isCloseTo(TimeUnit.MILLISECONDS.toNanos(500), within(1e6));
+        assertThat((double) histogram.getPercentileNanos(50.0)).isCloseTo(TimeUnit.MILLISECONDS.toNanos(500), within(500e6 / 16));
+        assertThat((double) histogram.getPercentileNanos(99.0)).isCloseTo(TimeUnit.MILLISECONDS.toNanos(990), within(990e6 / 16));
+        assertThat(histogram.getPercentileNanos(100.0)).isEqualTo(histogram.getMaxNanos());
+        assertThat(histogram.toString()).startsWith("count 1001, mean ");
+
+        histogram.reset();
+        assertThat(histogram.getCount()).isEqualTo(0);
+        assertThat(histogram.getPercentileNanos(50.0)).isEqualTo(0);
+    }
+}
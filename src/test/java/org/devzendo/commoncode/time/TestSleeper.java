@@ -21,6 +21,8 @@ import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * Tests the Sleeper
  * @author matt
@@ -85,6 +87,46 @@ public final class TestSleeper {
     }
 
 
+    @Test(timeout = 4000)
+    public void nanoTimeCanBeSpedUp() {
+        final Sleeper fourTimesFaster = new Sleeper(4);
+        final long realStart = System.nanoTime();
+        final long sleeperStart = fourTimesFaster.nanoTime();
+        ThreadUtils.waitNoInterruption(500);
+        final long realDuration = System.nanoTime() - realStart;
+        final long sleeperDuration = fourTimesFaster.nanoTime() - sleeperStart;
+        // within 100ms of sped-up real time
+        Assert.assertThat(Math.abs(sleeperDuration - realDuration * 4), Matchers.lessThan(TimeUnit.MILLISECONDS.toNanos(100)));
+    }
+
+    @Test(timeout = 4000)
+    public void sleepsWithSubMillisecondResolution() throws InterruptedException {
+        final Sleeper normalTime = new Sleeper();
+        final long start = System.nanoTime();
+        normalTime.sleep(1500, TimeUnit.MICROSECONDS);
+        final long dur = System.nanoTime() - start;
+        Assert.assertThat(dur, Matchers.greaterThanOrEqualTo(TimeUnit.MICROSECONDS.toNanos(1500)));
+    }
+
+    @Test(timeout = 4000, expected = InterruptedException.class)
+    public void interruptedNanoSleepThrows() throws InterruptedException {
+        Thread.currentThread().interrupt();
+        new Sleeper().sleepNanos(TimeUnit.SECONDS.toNanos(10));
+    }
+
+    @Test(timeout = 4000)
+    public void interruptedSleepReturnsEarlyAndRemainsInterrupted() {
+        final Sleeper normalTime = new Sleeper();
+        final Thread sleeping = Thread.currentThread();
+        new Thread(() -> {
+            ThreadUtils.waitNoInterruption(100);
+            sleeping.interrupt();
+        }).start();
+        final long dur = sleepFor(normalTime, 10000);
+        Assert.assertTrue(Thread.interrupted());
+        Assert.assertThat(dur, Matchers.lessThan(2000L));
+    }
+
     private long sleepFor(final Sleeper sleeper, final long duration) {
         final long start = System.currentTimeMillis();
         sleeper.sleep(duration);
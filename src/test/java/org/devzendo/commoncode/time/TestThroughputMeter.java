@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.time;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * Tests the ThroughputMeter
+ * @author matt
+ *
+ */
+public final class TestThroughputMeter {
+    private final Sleeper sleeper = new Sleeper(10);
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sampleIntervalMustBePositive() {
+        new ThroughputMeter(sleeper, 0, 1000);
+    }
+
+    @Test(timeout = 4000)
+    public void concurrentAddsAreAllCounted() throws InterruptedException {
+        final ThroughputMeter meter = new ThroughputMeter(sleeper, 1000, 5000);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 100000; j++) {
+                    meter.add(3);
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertThat(meter.getTotal()).isEqualTo(8 * 100000 * 3L);
+    }
+
+    @Test(timeout = 8000)
+    public void ratesAreMeasured() {
+        final ThroughputMeter meter = new ThroughputMeter(sleeper, 1000, 1000);
+        assertThat(meter.getInstantaneousRate()).isEqualTo(0.0);
+
+        meter.add(10000);
+        sleeper.sleep(2000);
+        // 10000 bytes over ~2s
+        assertThat(meter.getInstantaneousRate()).isCloseTo(5000.0, within(1000.0));
+        assertThat(meter.getAverageRate()).isCloseTo(5000.0, within(1000.0));
+        assertThat(meter.getOverallRate()).isCloseTo(5000.0, within(1000.0));
+
+        // Nothing more transferred: the instantaneous rate drops to zero, the
+        // average decays towards it, and the overall rate halves.
+        sleeper.sleep(2000);
+        assertThat(meter.getInstantaneousRate()).isEqualTo(0.0);
+        assertThat(meter.getAverageRate()).isBetween(100.0, 2000.0);
+        assertThat(meter.getOverallRate()).isCloseTo(2500.0, within(500.0));
+    }
+
+    @Test(timeout = 4000)
+    public void ratesAreDescribed() {
+        final ThroughputMeter meter = new ThroughputMeter(sleeper, 1000, 1000);
+        meter.add(2048);
+        assertThat(meter.toString()).matches(".*B/s now, .*B/s average;   2\\.00KB \\(2,048 bytes\\) transferred in .* MB/s\\)");
+    }
+}
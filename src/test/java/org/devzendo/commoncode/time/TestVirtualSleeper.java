@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.time;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the VirtualSleeper
+ * @author matt
+ *
+ */
+public final class TestVirtualSleeper {
+    private final VirtualSleeper sleeper = new VirtualSleeper(1000L);
+
+    @After
+    public void stopAutoAdvance() {
+        sleeper.setAutoAdvance(false);
+    }
+
+    private Thread sleepThenRecord(final long millis, final String name, final List<String> record) {
+        final Thread thread = new Thread(() -> {
+            sleeper.sleep(millis);
+            record.add(name + "@" + TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime()));
+        });
+        thread.start();
+        return thread;
+    }
+
+    private void awaitPending(final int count) {
+        while (sleeper.getPendingCount() < count) {
+            Thread.yield();
+        }
+    }
+
+    @Test
+    public void timeOnlyMovesWhenAdvanced() {
+        assertThat(sleeper.nanoTime()).isEqualTo(0L);
+        assertThat(sleeper.currentTimeMillis()).isEqualTo(1000L);
+
+        sleeper.advance(90, TimeUnit.MINUTES);
+        assertThat(sleeper.nanoTime()).isEqualTo(TimeUnit.MINUTES.toNanos(90));
+        assertThat(sleeper.currentTimeMillis()).isEqualTo(1000L + TimeUnit.MINUTES.toMillis(90));
+    }
+
+    @Test(timeout = 4000)
+    public void sleepersWakeInDeadlineOrderWhenTimeReachesThem() throws InterruptedException {
+        final List<String> record = Collections.synchronizedList(new ArrayList<>());
+        final Thread late = sleepThenRecord(3000, "late", record);
+        awaitPending(1);
+        final Thread early = sleepThenRecord(1000, "early", record);
+        awaitPending(2);
+
+        sleeper.advance(999, TimeUnit.MILLISECONDS);
+        assertThat(record).isEmpty();
+
+        sleeper.advance(1, TimeUnit.HOURS);
+        early.join();
+        late.join();
+        assertThat(record).containsExactly("early@1000", "late@3000");
+    }
+
+    @Test
+    public void tasksRunInOrderOnTheAdvancingThreadUnlessCancelled() {
+        final List<String> record = new ArrayList<>();
+        sleeper.schedule(TimeUnit.SECONDS.toNanos(2), () -> record.add("b@" + sleeper.nanoTime()));
+        sleeper.schedule(TimeUnit.SECONDS.toNanos(1), () -> record.add("a@" + sleeper.nanoTime()));
+        final VirtualSleeper.Event cancelled = sleeper.schedule(TimeUnit.SECONDS.toNanos(1), () -> record.add("cancelled"));
+        sleeper.schedule(TimeUnit.SECONDS.toNanos(2), () -> record.add("c"));
+
+        assertThat(sleeper.cancel(cancelled)).isTrue();
+        assertThat(sleeper.advanceToNext()).isTrue();
+        assertThat(record).containsExactly("a@1000000000");
+        sleeper.advance(5, TimeUnit.SECONDS);
+        assertThat(record).containsExactly("a@1000000000", "b@2000000000", "c");
+        assertThat(sleeper.cancel(cancelled)).isFalse();
+        assertThat(sleeper.advanceToNext()).isFalse();
+    }
+
+    @Test(timeout = 4000)
+    public void autoAdvanceRunsHoursOfSleepsQuickly() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread poller = new Thread(() -> {
+            for (int i = 0; i < 3600; i++) {
+                sleeper.sleep(5000);
+            }
+            done.countDown();
+        });
+        sleeper.setAutoAdvance(true);
+        poller.start();
+
+        done.await();
+        assertThat(sleeper.nanoTime()).isEqualTo(TimeUnit.HOURS.toNanos(5));
+    }
+
+    @Test(timeout = 4000)
+    public void interruptedSleeperThrowsAndIsForgotten() throws InterruptedException {
+        final Throwable[] thrown = new Throwable[1];
+        final Thread thread = new Thread(() -> {
+            try {
+                sleeper.sleepNanos(1000);
+            } catch (final InterruptedException e) {
+                thrown[0] = e;
+            }
+        });
+        thread.start();
+        awaitPending(1);
+        thread.interrupt();
+        thread.join();
+        assertThat(thrown[0]).isInstanceOf(InterruptedException.class);
+        assertThat(sleeper.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test(timeout = 4000)
+    public void participantBlockedElsewhereHoldsTimeStill() throws InterruptedException {
+        final Object monitor = new Object();
+        final List<String> record = Collections.synchronizedList(new ArrayList<>());
+        final Thread participant;
+        final Thread advancer;
+        synchronized (monitor) {
+            participant = new Thread(() -> {
+                sleeper.participate();
+                synchronized (monitor) {
+                    record.add("unblocked@" + TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime()));
+                }
+                sleeper.sleep(1);
+            });
+            participant.start();
+            while (participant.getState() != Thread.State.BLOCKED) {
+                Thread.yield();
+            }
+            sleeper.schedule(TimeUnit.SECONDS.toNanos(1), () -> record.add("task"));
+            advancer = new Thread(() -> sleeper.advance(1, TimeUnit.HOURS));
+            advancer.start();
+            advancer.join(100);
+            assertThat(advancer.isAlive()).isTrue();
+            assertThat(sleeper.nanoTime()).isEqualTo(0L);
+        }
+        participant.join();
+        advancer.join();
+        assertThat(record).containsExactly("unblocked@0", "task");
+    }
+
+    @Test(timeout = 10000)
+    public void workHandedOffWithAwaitAndSignalAllRunsInVirtualTimeOrder() throws InterruptedException {
+        final ConcurrentLinkedQueue<Integer> work = new ConcurrentLinkedQueue<>();
+        final List<String> record = Collections.synchronizedList(new ArrayList<>());
+        final CountDownLatch participating = new CountDownLatch(1);
+        final Thread consumer = new Thread(() -> {
+            sleeper.participate();
+            participating.countDown();
+            try {
+                for (int i = 0; i < 50; i++) {
+                    sleeper.await(() -> !work.isEmpty());
+                    final int item = work.poll();
+                    sleeper.sleep(10); // processing takes a while
+                    record.add(item + "@" + TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime()));
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        final Thread producer = new Thread(() -> {
+            for (int i = 1; i <= 50; i++) {
+                sleeper.sleep(1000);
+                work.add(i);
+                sleeper.signalAll();
+            }
+        });
+        sleeper.setAutoAdvance(true);
+        consumer.start();
+        participating.await(); // or time could run on before it awaits
+        producer.start();
+        consumer.join();
+        producer.join();
+
+        final List<String> expected = new ArrayList<>();
+        for (int i = 1; i <= 50; i++) {
+            expected.add(i + "@" + (i * 1000 + 10));
+        }
+        assertThat(record).isEqualTo(expected);
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.core.LogEvent;
 import org.devzendo.commoncode.concurrency.ThreadUtils;
 import org.devzendo.commoncode.logging.LogCapturingUnittestHelper;
+import org.devzendo.commoncode.time.Sleeper;
 import org.hamcrest.Matchers;
 import org.junit.After;
 import org.junit.Rule;
@@ -12,7 +13,12 @@ import org.junit.rules.ExpectedException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static java.lang.System.currentTimeMillis;
 import static java.lang.Thread.currentThread;
@@ -38,7 +44,7 @@ import static org.hamcrest.Matchers.*;
 public class TestDefaultTimeoutScheduler extends LogCapturingUnittestHelper {
     private static final Logger logger = LoggerFactory.getLogger(TestDefaultTimeoutScheduler.class);
 
-    private final TimeoutScheduler ts = new DefaultTimeoutScheduler();
+    private final DefaultTimeoutScheduler ts = new DefaultTimeoutScheduler();
 
     @Rule
     public ExpectedException thrown = ExpectedException.none();
@@ -311,4 +317,130 @@ public class TestDefaultTimeoutScheduler extends LogCapturingUnittestHelper {
 
         assertThat(when[0], equalTo(0L)); // did not trigger
     }
+
+    @Test(timeout = 2000)
+    public void firedAndCancelledTimeoutsAreReclaimed() {
+        ts.start();
+
+        for (int i = 0; i < 1000; i++) {
+            ts.schedule(10, () -> { });
+        }
+        final TimeoutId cancelled = ts.schedule(60000, () -> { });
+        assertThat(ts.getLiveTimeoutCount(), greaterThan(0));
+
+        assertThat(ts.cancel(cancelled), equalTo(true));
+        while (ts.getLiveTimeoutCount() != 0) {
+            waitNoInterruption(10);
+        }
+    }
+
+    @Test
+    public void stoppingReclaimsOutstandingTimeouts() {
+        ts.start();
+        ts.schedule(60000, () -> { });
+        assertThat(ts.getLiveTimeoutCount(), equalTo(1));
+
+        ts.stop();
+        assertThat(ts.getLiveTimeoutCount(), equalTo(0));
+    }
+
+    @Test(timeout = 2000)
+    public void resetPushesTheDeadlineBackKeepingTheId() {
+        ts.start();
+
+        final long[] when = new long[]{0};
+        final long start = currentTimeMillis();
+        final TimeoutId id = ts.schedule(300, () -> when[0] = currentTimeMillis());
+        waitNoInterruption(200L);
+        assertThat(ts.reset(id, 300), equalTo(true));
+
+        waitNoInterruption(700L);
+        assertThat(when[0] - start, greaterThanOrEqualTo(500L));
+        assertThat(ts.reset(id, 300), equalTo(false)); // it has fired
+    }
+
+    @Test(timeout = 2000)
+    public void periodicTimeoutRunsUntilCancelled() {
+        ts.start();
+
+        final int[] runs = new int[]{0};
+        final TimeoutId id = ts.scheduleAtFixedRate(50, 100, () -> runs[0]++);
+        waitNoInterruption(500L);
+        assertThat(ts.cancel(id), equalTo(true));
+        final int runsWhenCancelled = runs[0];
+        assertThat(runsWhenCancelled, greaterThanOrEqualTo(3));
+
+        waitNoInterruption(300L);
+        assertThat(runs[0], lessThanOrEqualTo(runsWhenCancelled + 1));
+        assertThat(ts.getLiveTimeoutCount(), equalTo(0));
+    }
+
+    @Test(timeout = 2000)
+    public void slowHandlersOnAHandlerExecutorDoNotDelayOtherTimeouts() {
+        final ExecutorService handlers = Executors.newCachedThreadPool();
+        final DefaultTimeoutScheduler oneTimer = new DefaultTimeoutScheduler(new Sleeper(), 1, handlers);
+        oneTimer.start();
+        try {
+            final long[] when = new long[]{0};
+            final long start = currentTimeMillis();
+            oneTimer.schedule(50, () -> waitNoInterruption(1000L));
+            oneTimer.schedule(100, () -> when[0] = currentTimeMillis());
+
+            waitNoInterruption(400L);
+            assertThat(when[0], not(equalTo(0L)));
+            assertThat(when[0] - start, lessThan(400L));
+            assertThat(oneTimer.getLatenessHistogram().getCount(), equalTo(2L));
+            assertThat(oneTimer.getLatenessHistogram().getMaxNanos(), lessThan(TimeUnit.MILLISECONDS.toNanos(250)));
+            assertThat(oneTimer.getHandlerDurationHistogram().getCount(), equalTo(1L)); // the slow one is still running
+        } finally {
+            oneTimer.stop();
+            handlers.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 2000)
+    public void batchCanBeScheduledAndCancelled() {
+        ts.start();
+
+        final AtomicInteger fired = new AtomicInteger(0);
+        final List<Runnable> handlers = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            handlers.add(fired::incrementAndGet);
+        }
+        final List<TimeoutId> ids = ts.scheduleAll(200, handlers);
+        assertThat(ts.cancelAll(ids.subList(0, 40)), equalTo(40));
+
+        waitNoInterruption(500L);
+        assertThat(fired.get(), equalTo(60));
+        assertThat(ts.getLiveTimeoutCount(), equalTo(0));
+    }
+
+    @Test(timeout = 10000)
+    public void timeoutsScheduledFiredAndCancelledOnManyThreadsAreAllAccountedFor() throws InterruptedException {
+        ts.start();
+        final AtomicInteger fired = new AtomicInteger(0);
+        final AtomicInteger cancelled = new AtomicInteger(0);
+        final Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 2000; i++) {
+                    final TimeoutId id = ts.schedule(i % 5, fired::incrementAndGet);
+                    if (i % 2 == 0 && ts.cancel(id)) {
+                        cancelled.incrementAndGet();
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        // a one-shot timeout stops being live just before its handler runs
+        while (fired.get() + cancelled.get() < 16000) {
+            waitNoInterruption(10L);
+        }
+        waitNoInterruption(50L);
+        assertThat(fired.get() + cancelled.get(), equalTo(16000));
+        assertThat(ts.getLiveTimeoutCount(), equalTo(0));
+    }
 }
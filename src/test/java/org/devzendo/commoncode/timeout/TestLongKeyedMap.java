@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.timeout;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests the LongKeyedMap
+ * @author matt
+ *
+ */
+public final class TestLongKeyedMap {
+    private final LongKeyedMap<String> map = new LongKeyedMap<>();
+
+    @Test
+    public void putGetRemove() {
+        assertThat(map.get(1L)).isNull();
+        assertThat(map.put(1L, "one")).isNull();
+        assertThat(map.put(1L, "uno")).isEqualTo("one");
+        assertThat(map.get(1L)).isEqualTo("uno");
+        assertThat(map.size()).isEqualTo(1);
+        assertThat(map.remove(1L)).isEqualTo("uno");
+        assertThat(map.remove(1L)).isNull();
+        assertThat(map.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void behavesLikeAHashMapThroughGrowthAndShrinkage() {
+        final Map<Long, String> expected = new HashMap<>();
+        final Random random = new Random(42);
+        for (int round = 0; round < 20000; round++) {
+            // Keys from a small range force collisions, removals and reuse;
+            // the first half mostly inserts, the second mostly removes.
+            final long key = random.nextInt(4096) - 2048;
+            if (random.nextInt(100) < (round < 10000 ? 70 : 20)) {
+                assertThat(map.put(key, "v" + round)).isEqualTo(expected.put(key, "v" + round));
+            } else {
+                assertThat(map.remove(key)).isEqualTo(expected.remove(key));
+            }
+        }
+        assertThat(map.size()).isEqualTo(expected.size());
+        for (long key = -2048; key < 2048; key++) {
+            assertThat(map.get(key)).isEqualTo(expected.get(key));
+        }
+        final List<String> values = new ArrayList<>();
+        map.forEachValue(values::add);
+        assertThat(values).containsExactlyInAnyOrderElementsOf(expected.values());
+    }
+
+    @Test
+    public void clearEmptiesTheMap() {
+        for (long key = 0; key < 100; key++) {
+            map.put(key, "x");
+        }
+        map.clear();
+        assertThat(map.size()).isEqualTo(0);
+        assertThat(map.get(5L)).isNull();
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2008-2017 Matt Gumbley, DevZendo.org http://devzendo.org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.devzendo.commoncode.timeout;
+
+import org.devzendo.commoncode.time.LatencyHistogram;
+import org.devzendo.commoncode.time.VirtualSleeper;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Tests the VirtualTimeoutScheduler
+ * @author matt
+ *
+ */
+public final class TestVirtualTimeoutScheduler {
+    private final VirtualSleeper sleeper = new VirtualSleeper();
+    private final TimeoutScheduler ts = new VirtualTimeoutScheduler(sleeper);
+
+    @Test
+    public void timeoutsFireInExpiryOrderAsVirtualTimeAdvances() {
+        ts.start();
+        final List<String> fired = new ArrayList<>();
+        ts.schedule(TimeUnit.HOURS.toMillis(2), () -> fired.add("two hours"));
+        ts.schedule(500, () -> fired.add("half a second"));
+        final TimeoutId cancelled = ts.schedule(1000, () -> fired.add("cancelled"));
+
+        assertThat(ts.cancel(cancelled)).isTrue();
+        assertThat(ts.cancel(cancelled)).isFalse();
+
+        sleeper.advance(1, TimeUnit.HOURS);
+        assertThat(fired).containsExactly("half a second");
+        sleeper.advance(1, TimeUnit.HOURS);
+        assertThat(fired).containsExactly("half a second", "two hours");
+
+        final LatencyHistogram lateness = ((VirtualTimeoutScheduler) ts).getLatenessHistogram();
+        assertThat(lateness.getCount()).isEqualTo(2);
+        assertThat(lateness.getMaxNanos()).isEqualTo(0); // virtual time is never late
+    }
+
+    @Test
+    public void firedTimeoutCannotBeCancelled() {
+        ts.start();
+        final TimeoutId id = ts.schedule(10, () -> { });
+        sleeper.advance(10, TimeUnit.MILLISECONDS);
+        assertThat(ts.cancel(id)).isFalse();
+    }
+
+    @Test
+    public void handlerExceptionsDoNotStopOtherTimeouts() {
+        ts.start();
+        final List<String> fired = new ArrayList<>();
+        ts.schedule(10, () -> { throw new IllegalStateException("boom"); });
+        ts.schedule(20, () -> fired.add("after"));
+        sleeper.advance(1, TimeUnit.SECONDS);
+        assertThat(fired).containsExactly("after");
+    }
+
+    @Test
+    public void stoppingDiscardsPendingTimeouts() {
+        ts.start();
+        ts.schedule(10, () -> { });
+        ts.stop();
+        assertThat(sleeper.getPendingCount()).isEqualTo(0);
+        assertThatThrownBy(() -> ts.schedule(10, () -> { })).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void resetMovesTheDeadlineEitherWay() {
+        ts.start();
+        final List<Long> fired = new ArrayList<>();
+        final TimeoutId later = ts.schedule(1000, () -> fired.add(sleeper.nanoTime()));
+        sleeper.advance(900, TimeUnit.MILLISECONDS);
+        assertThat(ts.reset(later, 1000)).isTrue();
+        sleeper.advance(1000, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly(TimeUnit.MILLISECONDS.toNanos(1900));
+
+        final TimeoutId earlier = ts.schedule(5000, () -> fired.add(sleeper.nanoTime()));
+        assertThat(ts.reset(earlier, 100)).isTrue();
+        sleeper.advance(200, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly(TimeUnit.MILLISECONDS.toNanos(1900), TimeUnit.MILLISECONDS.toNanos(2000));
+        assertThat(ts.reset(earlier, 100)).isFalse();
+    }
+
+    @Test
+    public void fixedRateRunsOnEveryPeriodUntilCancelled() {
+        ts.start();
+        final List<Long> fired = new ArrayList<>();
+        final TimeoutId id = ts.scheduleAtFixedRate(100, 1000, () -> fired.add(TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime())));
+        sleeper.advance(3500, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly(100L, 1100L, 2100L, 3100L);
+        assertThat(((VirtualTimeoutScheduler) ts).getLiveTimeoutCount()).isEqualTo(1);
+
+        assertThat(ts.cancel(id)).isTrue();
+        sleeper.advance(3500, TimeUnit.MILLISECONDS);
+        assertThat(fired).hasSize(4);
+        assertThat(((VirtualTimeoutScheduler) ts).getLiveTimeoutCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void resetPeriodicTimeoutContinuesFromItsNewDeadline() {
+        ts.start();
+        final List<Long> fired = new ArrayList<>();
+        final TimeoutId id = ts.scheduleWithFixedDelay(0, 1000, () -> fired.add(TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime())));
+        sleeper.advance(1500, TimeUnit.MILLISECONDS);
+        assertThat(ts.reset(id, 200)).isTrue();
+        sleeper.advance(1500, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly(0L, 1000L, 1700L, 2700L);
+    }
+
+    @Test
+    public void resetByAFixedDelayHandlerWhileRunningIsHonoured() {
+        ts.start();
+        final List<Long> fired = new ArrayList<>();
+        final TimeoutId[] id = new TimeoutId[1];
+        id[0] = ts.scheduleWithFixedDelay(1000, 1000, () -> {
+            fired.add(TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime()));
+            if (fired.size() == 1) {
+                assertThat(ts.reset(id[0], 5000)).isTrue();
+            }
+        });
+        sleeper.advance(7500, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly(1000L, 6000L, 7000L);
+    }
+
+    @Test
+    public void resetByAFixedRateHandlerWhileRunningIsHonoured() {
+        ts.start();
+        final List<Long> fired = new ArrayList<>();
+        final TimeoutId[] id = new TimeoutId[1];
+        id[0] = ts.scheduleAtFixedRate(1000, 1000, () -> {
+            fired.add(TimeUnit.NANOSECONDS.toMillis(sleeper.nanoTime()));
+            if (fired.size() == 1) {
+                assertThat(ts.reset(id[0], 5000)).isTrue();
+            }
+        });
+        sleeper.advance(7500, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly(1000L, 6000L, 7000L);
+    }
+
+    @Test
+    public void schedulerImplementingOnlyTheOriginalMethodsGetsTheRestByDefault() {
+        ts.start();
+        final TimeoutScheduler original = new TimeoutScheduler() {
+            @Override
+            public TimeoutId schedule(final long millisecondsFromNow, final Runnable runnable) {
+                return ts.schedule(millisecondsFromNow, runnable);
+            }
+
+            @Override
+            public boolean cancel(final TimeoutId timeoutId) {
+                return ts.cancel(timeoutId);
+            }
+
+            @Override
+            public void start() {
+            }
+
+            @Override
+            public boolean isStarted() {
+                return true;
+            }
+
+            @Override
+            public void stop() {
+            }
+        };
+        final List<String> fired = new ArrayList<>();
+        final List<TimeoutId> ids = original.scheduleAll(100, Arrays.asList(() -> fired.add("a"), () -> fired.add("b"), () -> fired.add("c")));
+        assertThat(original.cancelAll(ids.subList(1, 2))).isEqualTo(1);
+        final CompletableFuture<String> future = original.orTimeout(new CompletableFuture<>(), 200);
+        sleeper.advance(200, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly("a", "c");
+        assertThat(future).isCompletedExceptionally();
+        assertThatThrownBy(() -> original.reset(ids.get(0), 100)).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(original::createGroup).isInstanceOf(UnsupportedOperationException.class);
+    }
+
+    @Test
+    public void periodMustBePositive() {
+        ts.start();
+        assertThatThrownBy(() -> ts.scheduleAtFixedRate(0, 0, () -> { })).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void groupIsCancelledInOneCall() {
+        ts.start();
+        final List<String> fired = new ArrayList<>();
+        final TimeoutGroup connection = ts.createGroup();
+        for (int i = 0; i < 50; i++) {
+            connection.schedule(1000 + i, () -> fired.add("request"));
+        }
+        connection.scheduleAll(500, Arrays.asList(() -> fired.add("batched"), () -> fired.add("batched")));
+        ts.schedule(2000, () -> fired.add("other"));
+
+        connection.cancel();
+        assertThat(connection.isCancelled()).isTrue();
+        assertThatThrownBy(() -> connection.schedule(10, () -> { })).isInstanceOf(IllegalStateException.class);
+
+        sleeper.advance(1, TimeUnit.HOURS);
+        assertThat(fired).containsExactly("other");
+        assertThat(((VirtualTimeoutScheduler) ts).getLiveTimeoutCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancelledGroupsTimeoutsStopCountingAtOnceAndCanBePurged() {
+        ts.start();
+        final TimeoutGroup connection = ts.createGroup();
+        final TimeoutId firstRequest = connection.schedule(1000, () -> { });
+        final TimeoutId secondRequest = connection.schedule(2000, () -> { });
+        connection.scheduleAll(500, Arrays.asList(() -> { }, () -> { }));
+        ts.schedule(3000, () -> { });
+        assertThat(ts.cancel(firstRequest)).isTrue();
+        final VirtualTimeoutScheduler vts = (VirtualTimeoutScheduler) ts;
+        assertThat(vts.getLiveTimeoutCount()).isEqualTo(4);
+
+        connection.cancel();
+        connection.cancel();
+        assertThat(vts.getLiveTimeoutCount()).isEqualTo(1);
+        assertThat(ts.reset(secondRequest, 10)).isFalse();
+        assertThat(sleeper.getPendingCount()).isEqualTo(2); // the batch's task, and the other timeout's
+
+        assertThat(vts.purgeCancelledTimeouts()).isEqualTo(2);
+        assertThat(sleeper.getPendingCount()).isEqualTo(1);
+        assertThat(vts.getLiveTimeoutCount()).isEqualTo(1);
+        assertThat(vts.purgeCancelledTimeouts()).isEqualTo(0);
+    }
+
+    @Test
+    public void cancelledGroupsTimeoutsAreRemovedWhenTheirTasksRun() {
+        ts.start();
+        final List<String> fired = new ArrayList<>();
+        final TimeoutGroup connection = ts.createGroup();
+        connection.schedule(100, () -> fired.add("first"));
+        final TimeoutId request = connection.schedule(1000, () -> fired.add("request"));
+        connection.scheduleAll(2000, Arrays.asList(() -> fired.add("batched"), () -> fired.add("batched")));
+        sleeper.advance(150, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly("first");
+
+        connection.cancel();
+        assertThat(ts.cancel(request)).isFalse(); // already cancelled, with the group
+        sleeper.advance(1, TimeUnit.HOURS);
+        assertThat(fired).containsExactly("first");
+        assertThat(sleeper.getPendingCount()).isEqualTo(0);
+        assertThat(((VirtualTimeoutScheduler) ts).getLiveTimeoutCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void batchSharesOneQueuedTaskButCanBeCancelledAndResetIndividually() {
+        ts.start();
+        final List<String> fired = new ArrayList<>();
+        final List<TimeoutId> ids = ts.scheduleAll(1000,
+                Arrays.asList(() -> fired.add("a"), () -> fired.add("b"), () -> fired.add("c"), () -> fired.add("d")));
+        assertThat(ids).hasSize(4);
+        assertThat(sleeper.getPendingCount()).isEqualTo(1);
+
+        assertThat(ts.cancel(ids.get(1))).isTrue();
+        assertThat(ts.reset(ids.get(2), 100)).isTrue(); // earlier: gets its own queued task
+        assertThat(ts.reset(ids.get(3), 5000)).isTrue(); // later: re-queued when the batch fires
+        assertThat(ts.cancelAll(Arrays.asList(ids.get(1), new TimeoutId(999L)))).isEqualTo(0);
+
+        sleeper.advance(100, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly("c");
+        sleeper.advance(900, TimeUnit.MILLISECONDS);
+        assertThat(fired).containsExactly("c", "a");
+        sleeper.advance(5, TimeUnit.SECONDS);
+        assertThat(fired).containsExactly("c", "a", "d");
+    }
+
+    @Test
+    public void futureThatTakesTooLongFailsWithTimeoutException() {
+        ts.start();
+        final CompletableFuture<String> future = ts.orTimeout(new CompletableFuture<>(), 1000);
+        sleeper.advance(999, TimeUnit.MILLISECONDS);
+        assertThat(future).isNotDone();
+        sleeper.advance(1, TimeUnit.MILLISECONDS);
+        assertThat(future).isCompletedExceptionally();
+        assertThatThrownBy(future::join).hasCauseInstanceOf(TimeoutException.class).hasMessageContaining("Timed out after 1000ms");
+    }
+
+    @Test
+    public void completingTheFutureDisarmsItsTimeout() {
+        ts.start();
+        final CompletableFuture<String> future = ts.orTimeout(new CompletableFuture<>(), 1000);
+        assertThat(((VirtualTimeoutScheduler) ts).getLiveTimeoutCount()).isEqualTo(1);
+        future.complete("done");
+        assertThat(((VirtualTimeoutScheduler) ts).getLiveTimeoutCount()).isEqualTo(0);
+        assertThat(sleeper.getPendingCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void withTimeoutLeavesTheOriginalStageAlone() {
+        ts.start();
+        final CompletableFuture<String> original = new CompletableFuture<>();
+        final CompletableFuture<String> timed = ts.withTimeout(original, 10);
+        sleeper.advance(10, TimeUnit.MILLISECONDS);
+        assertThat(timed).isCompletedExceptionally();
+        assertThat(original).isNotDone();
+
+        final CompletableFuture<String> quick = ts.withTimeout(CompletableFuture.completedFuture("quick"), 10);
+        assertThat(quick).isCompletedWithValue("quick");
+    }
+
+    @Test
+    public void timeoutCanBeScheduledAtAnAbsoluteDeadline() {
+        ts.start();
+        sleeper.advance(5, TimeUnit.SECONDS);
+        final long deadline = ts.nanoTime() + TimeUnit.MILLISECONDS.toNanos(250);
+        final List<Long> fired = new ArrayList<>();
+        ts.scheduleAtNanos(deadline, () -> fired.add(sleeper.nanoTime()));
+        ts.scheduleAtNanos(0, () -> fired.add(-1L)); // already passed: fires at once
+        sleeper.advance(1, TimeUnit.SECONDS);
+        assertThat(fired).containsExactly(-1L, deadline);
+    }
+}